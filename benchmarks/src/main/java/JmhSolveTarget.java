@@ -0,0 +1,50 @@
+import benchmarks.SolveTarget;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Solves generated puzzles for the JMH benchmarks, which can't refer to the
+ * classes of the default package themselves.</br>
+ * </br>
+ * The puzzles are generated as {@link SolverBenchmark} generates them, and
+ * share a context pool, so the allocation measured is that of the search.
+ *
+ * @author NadavNV
+ */
+public class JmhSolveTarget implements SolveTarget {
+    private final SearchContextPool contexts = new SearchContextPool();
+    private final ArrayList<Map<CubeHex, Integer>> puzzles = new ArrayList<>();
+    private BoardTopology topology;
+    private HexGridPuzzle.Algorithm algorithm;
+    private HexGridPuzzle.MoveOrder order;
+    private long timeoutMillis;
+
+    @Override
+    public void setUp(String algorithm, String order, int radius, double clueDensity, int puzzles, long seed,
+            long timeoutMillis) {
+        this.algorithm = HexGridPuzzle.Algorithm.valueOf(algorithm.toUpperCase());
+        this.order = HexGridPuzzle.MoveOrder.valueOf(order.toUpperCase());
+        this.timeoutMillis = timeoutMillis;
+        this.topology = new BoardTopology(radius);
+        Random random = new Random(seed);
+        this.puzzles.clear();
+        for (int i = 0; i < puzzles; i++) {
+            this.puzzles.add(SolverBenchmark.generatePuzzle(radius, clueDensity, random));
+        }
+    }
+
+    @Override
+    public int getPuzzleCount() {
+        return puzzles.size();
+    }
+
+    @Override
+    public boolean solve(int index) {
+        HexGridPuzzle puzzle = new HexGridPuzzle(topology, puzzles.get(index));
+        puzzle.setMoveOrder(order);
+        puzzle.setContextPool(contexts);
+        return puzzle.solve(algorithm, new AtomicBoolean(), timeoutMillis, null) != HexGridPuzzle.Outcome.TIMED_OUT;
+    }
+}
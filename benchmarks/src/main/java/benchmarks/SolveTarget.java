@@ -0,0 +1,40 @@
+package benchmarks;
+
+/**
+ * The puzzles a benchmark solves.</br>
+ * </br>
+ * JMH can't generate benchmarks for classes in the default package, where
+ * the solvers are, and a class in a named package can't refer to them, so
+ * the benchmarks reach them through this interface, which is implemented in
+ * the default package by {@code JmhSolveTarget}.
+ *
+ * @author NadavNV
+ */
+public interface SolveTarget {
+    /**
+     * Generates the puzzles to solve, which depend only on the seed.
+     *
+     * @param algorithm the name of a {@code HexGridPuzzle.Algorithm}
+     * @param order the name of a {@code HexGridPuzzle.MoveOrder}
+     * @param radius the radius of the puzzles
+     * @param clueDensity the share of the cells that are given as clues
+     * @param puzzles how many puzzles to generate
+     * @param seed the seed of the generator
+     * @param timeoutMillis how long a single solve may take
+     */
+    void setUp(String algorithm, String order, int radius, double clueDensity, int puzzles, long seed,
+            long timeoutMillis);
+
+    /**
+     * @return how many puzzles were generated
+     */
+    int getPuzzleCount();
+
+    /**
+     * Solves one of the puzzles from scratch.
+     *
+     * @param index which puzzle to solve
+     * @return true if the solve finished, false if it ran past the timeout
+     */
+    boolean solve(int index);
+}
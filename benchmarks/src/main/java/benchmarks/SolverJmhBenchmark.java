@@ -0,0 +1,116 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the time and allocation of a single solve with JMH, for every
+ * algorithm and order on generated puzzles of several radii and clue
+ * densities.</br>
+ * </br>
+ * Every invocation solves the next of a fixed set of puzzles from scratch.
+ * Solves that run past the timeout are censored samples: they count at the
+ * time they gave up, so a score that includes them is only a lower bound,
+ * and how many there were is reported as the {@code timedOut} secondary
+ * result next to {@code solved}. The main method runs the benchmarks with
+ * the GC profiler, which adds the bytes allocated per solve and the
+ * collections they caused, and takes the usual JMH options:
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar -p radius=4,6 -p algorithm=GAPS
+ * </pre>
+ *
+ * @author NadavNV
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SolverJmhBenchmark {
+    // Implements SolveTarget in the default package, with the solvers
+    private static final String TARGET_CLASS = "JmhSolveTarget";
+
+    @Param({"PATHFINDING", "DFS", "GAPS"})
+    public String algorithm;
+
+    @Param({"NATURAL"})
+    public String order;
+
+    @Param({"4", "6"})
+    public int radius;
+
+    @Param({"0.5", "0.35"})
+    public double clues;
+
+    @Param({"3"})
+    public int puzzles;
+
+    @Param({"2000"})
+    public long timeoutMillis;
+
+    @Param({"1"})
+    public long seed;
+
+    private SolveTarget target;
+    // The puzzle the next invocation solves
+    private int next;
+
+    /**
+     * How the solves of an iteration ended, reported next to the score.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Outcomes {
+        public long solved;
+        public long timedOut;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        target = (SolveTarget) Class.forName(TARGET_CLASS).getConstructor().newInstance();
+        target.setUp(algorithm, order, radius, clues, puzzles, seed, timeoutMillis);
+        next = 0;
+    }
+
+    @Benchmark
+    public boolean solve(Outcomes outcomes) {
+        boolean solved = target.solve(next);
+        next = (next + 1) % target.getPuzzleCount();
+        if (solved) {
+            outcomes.solved++;
+        } else {
+            outcomes.timedOut++;
+        }
+        return solved;
+    }
+
+    /**
+     * @param args JMH command line options
+     * @throws Exception if the options are invalid or the run fails
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+                .parent(options)
+                .include(SolverJmhBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,108 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A {@link TraceSink} that hands messages to a background thread, which
+ * writes them out in batches through a buffered writer.</br>
+ * </br>
+ * The queue is bounded, so a solver that produces messages faster than they
+ * can be written will block instead of filling the heap.
+ *
+ * @author NadavNV
+ */
+class AsyncTraceWriter implements TraceSink {
+    private static final int DEFAULT_CAPACITY = 8192;
+    // How many messages the writer thread takes off the queue at once
+    private static final int BATCH_SIZE = 512;
+    // Tells the writer thread to stop. Compared by reference.
+    private static final String END_OF_TRACE = new String();
+
+    private final BlockingQueue<String> queue;
+    private final Writer output;
+    private final Thread writerThread;
+    // The first error the writer thread ran into, reported on close
+    private volatile IOException failure;
+
+    public AsyncTraceWriter(Writer output) {
+        this(output, DEFAULT_CAPACITY);
+    }
+
+    public AsyncTraceWriter(Writer output, int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.output = output;
+        this.writerThread = new Thread(this::drain, "trace-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void write(String message) {
+        try {
+            queue.put(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        ArrayList<String> batch = new ArrayList<>(BATCH_SIZE);
+        boolean running = true;
+        try {
+            while (running) {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                for (String message: batch) {
+                    if (message == END_OF_TRACE) {
+                        running = false;
+                        break;
+                    }
+                    output.write(message);
+                    output.write(System.lineSeparator());
+                }
+                output.flush();
+                batch.clear();
+            }
+        } catch (IOException e) {
+            failure = e;
+            // The end marker may already have been taken off the queue,
+            // behind the message that failed in the same batch
+            for (String message: batch) {
+                if (message == END_OF_TRACE) {
+                    running = false;
+                    break;
+                }
+            }
+            // Keep draining so that writers don't block forever
+            while (running) {
+                try {
+                    running = queue.take() != END_OF_TRACE;
+                } catch (InterruptedException interrupted) {
+                    running = false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        write(END_OF_TRACE);
+        try {
+            writerThread.join();
+            output.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            System.err.println("Could not write trace: " + failure.getMessage());
+        }
+    }
+}
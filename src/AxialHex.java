@@ -28,9 +28,10 @@ class AxialHex {
         return false;
     }
 
+    // The same as the hash code of the equivalent CubeHex
     @Override
     public int hashCode() {
-        return q + (r * 10);
+        return ((r << 16) ^ (q & 0xFFFF)) * CubeHex.HASH_MULTIPLIER;
     }
 
     @Override
@@ -0,0 +1,332 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Solves a stream of puzzles, one per line in the format of
+ * {@link PuzzleFormat}, on a pool of worker threads.</br>
+ * </br>
+ * Results are written in the order the puzzles were read, one line each:
+ * the outcome (solved, unsolvable, timeout, cancelled or error), the time
+ * the solve took in milliseconds, the nodes searched, the backtracks and
+ * the maximum depth of the search, and then the solved grid, or the puzzle
+ * as it was given if it wasn't solved. An error is followed by its message
+ * instead, and a puzzle answered from the cache searched no nodes:
+ * <pre>
+ * solved 0.412 nodes=9 backtracks=2 depth=5 1:1,2,7,3,6,4,5
+ * </pre>
+ * Only a bounded number of puzzles are read ahead of the results being
+ * written, so memory use doesn't grow with the size of the input. Every
+ * argument is optional and given as key=value:
+ * <pre>
+ * java BatchSolver in=puzzles.txt out=solutions.txt threads=8 algorithm=pathfinding order=natural timeout=10000 cache=100000
+ * </pre>
+ * Without in or out, puzzles are read from standard input and results are
+ * written to standard output. The timeout is in milliseconds, and 0 means
+ * no timeout. The order in which cells are tried is one of
+ * {@link HexGridPuzzle.MoveOrder}. Solutions are kept in a
+ * {@link SolutionCache} of up to the given number of puzzles, so repeated
+ * puzzles and their rotated or mirrored copies are only solved once. A
+ * cache size of 0 turns the cache off. With trace=dir, the binary trace of
+ * every puzzle that times out is kept in that directory for
+ * {@link TraceReplay}. With portfolio=default, or a comma separated list
+ * of entries such as portfolio=pathfinding/warnsdorff,dfs/forced/7, every
+ * puzzle is raced by the solvers of a {@link SolverPortfolio} instead, and
+ * how often each of them won is written to standard error at the end.
+ * Every puzzle then keeps one thread per entry busy, so fewer workers are
+ * needed, and no binary traces are kept.
+ *
+ * @author NadavNV
+ */
+public class BatchSolver {
+    // How many puzzles per worker may be read ahead of the results
+    private static final int PENDING_PER_WORKER = 4;
+    // Marks the end of the results. Compared by reference.
+    private static final Future<String> END_OF_RESULTS = CompletableFuture.completedFuture(null);
+    private static final int DEFAULT_CACHE_SIZE = 100000;
+
+    private final HexGridPuzzle.Algorithm algorithm;
+    private final HexGridPuzzle.MoveOrder order;
+    private final int threads;
+    private final long timeoutMillis;
+    // Null if solutions aren't cached
+    private final SolutionCache cache;
+    // The search contexts of the workers, reused from puzzle to puzzle
+    private final SearchContextPool contexts = new SearchContextPool();
+    // Where the binary traces of puzzles that time out are kept, or null
+    private Path traceDirectory;
+    private final AtomicLong traces = new AtomicLong();
+    // Races every puzzle instead of solving it with the algorithm, or null
+    private SolverPortfolio portfolio;
+
+    public BatchSolver(HexGridPuzzle.Algorithm algorithm, HexGridPuzzle.MoveOrder order,
+            int threads, long timeoutMillis, int cacheSize) {
+        this.algorithm = algorithm;
+        this.order = order;
+        this.threads = threads;
+        this.timeoutMillis = timeoutMillis;
+        this.cache = cacheSize > 0 ? new SolutionCache(cacheSize) : null;
+    }
+
+    // Keeps a binary trace of every puzzle that times out in the given
+    // directory, see TraceReplay, or none if it's null. The traces of the
+    // other puzzles are deleted once they are solved.
+    public void setTraceDirectory(Path traceDirectory) {
+        this.traceDirectory = traceDirectory;
+    }
+
+    // Races every puzzle with the solvers of the given portfolio instead of
+    // solving it with the algorithm and order, unless it's null. The caller
+    // remains responsible for closing the portfolio.
+    public void setPortfolio(SolverPortfolio portfolio) {
+        this.portfolio = portfolio;
+    }
+
+    // Solves every puzzle read from input and writes the results to output.
+    // Returns the number of puzzles read.
+    public int solve(BufferedReader input, Writer output) throws IOException, InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        BlockingQueue<Future<String>> pending = new ArrayBlockingQueue<>(threads * PENDING_PER_WORKER);
+        ResultWriter writer = new ResultWriter(pending, output);
+        writer.start();
+        int puzzles = 0;
+        try {
+            String line;
+            while ((line = input.readLine()) != null && writer.failure == null) {
+                if (PuzzleFormat.isPuzzle(line)) {
+                    String puzzle = line;
+                    // Blocks while too many results are waiting to be written
+                    pending.put(workers.submit(() -> solve(puzzle)));
+                    puzzles++;
+                }
+            }
+        } finally {
+            pending.put(END_OF_RESULTS);
+            writer.join();
+            workers.shutdownNow();
+        }
+        if (writer.failure != null) {
+            throw writer.failure;
+        }
+        return puzzles;
+    }
+
+    // Solves a single puzzle line and returns its result line. Safe to call
+    // from several threads.
+    String solve(String line) {
+        long start = System.nanoTime();
+        try {
+            Board initialState = PuzzleFormat.parse(line);
+            Board cached = cache == null ? null : cache.get(initialState);
+            if (cached != null) {
+                return result("solved", start, statistics(null) + PuzzleFormat.format(cached));
+            }
+            HexGridPuzzle puzzle = new HexGridPuzzle(initialState);
+            puzzle.setMoveOrder(order);
+            puzzle.setContextPool(contexts);
+            HexGridPuzzle.Outcome outcome;
+            if (portfolio != null) {
+                outcome = portfolio.race(puzzle, new AtomicBoolean(), timeoutMillis).getOutcome();
+            } else if (traceDirectory != null) {
+                outcome = solveTraced(puzzle);
+            } else {
+                outcome = puzzle.solve(algorithm, new AtomicBoolean(), timeoutMillis, null);
+            }
+            boolean solved = outcome == HexGridPuzzle.Outcome.SOLVED;
+            if (solved && cache != null) {
+                cache.put(initialState, puzzle.getBoard());
+            }
+            return result(status(outcome), start, statistics(puzzle.getMetrics()) +
+                    (solved ? PuzzleFormat.format(puzzle.getBoard()) : line.trim()));
+        } catch (RuntimeException | IOException e) {
+            return result("error", start, e.getMessage());
+        }
+    }
+
+    private HexGridPuzzle.Outcome solveTraced(HexGridPuzzle puzzle) throws IOException {
+        Path path = traceDirectory.resolve("puzzle-" + traces.incrementAndGet() + ".trace");
+        HexGridPuzzle.Outcome outcome;
+        try (BinaryTraceWriter recorder = new BinaryTraceWriter(path, puzzle.getBoard())) {
+            puzzle.setRecorder(recorder);
+            outcome = puzzle.solve(algorithm, new AtomicBoolean(), timeoutMillis, null);
+            puzzle.setRecorder(null);
+        }
+        if (outcome != HexGridPuzzle.Outcome.TIMED_OUT) {
+            Files.delete(path);
+        }
+        return outcome;
+    }
+
+    // How many puzzles were answered from the cache
+    public long getCacheHits() {
+        return cache == null ? 0 : cache.getHits();
+    }
+
+    private static String status(HexGridPuzzle.Outcome outcome) {
+        switch (outcome) {
+            case SOLVED:
+                return "solved";
+            case UNSOLVABLE:
+                return "unsolvable";
+            case TIMED_OUT:
+                return "timeout";
+            default:
+                return "cancelled";
+        }
+    }
+
+    // The statistics of a result line, followed by a space, from the
+    // metrics of its solve, or all zero if there was no search
+    private static String statistics(SolveMetrics metrics) {
+        if (metrics == null) {
+            return "nodes=0 backtracks=0 depth=0 ";
+        }
+        return "nodes=" + metrics.getNodes() + " backtracks=" + metrics.getBacktracks() +
+                " depth=" + metrics.getMaxDepth() + " ";
+    }
+
+    private static String result(String status, long start, String details) {
+        return String.format("%s %.3f %s", status, (System.nanoTime() - start) / 1e6, details);
+    }
+
+    // Writes the results in order as they complete
+    private static class ResultWriter extends Thread {
+        private final BlockingQueue<Future<String>> pending;
+        private final Writer output;
+        private volatile IOException failure;
+
+        public ResultWriter(BlockingQueue<Future<String>> pending, Writer output) {
+            super("batch-writer");
+            this.pending = pending;
+            this.output = output;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Future<String> result;
+                while ((result = pending.take()) != END_OF_RESULTS) {
+                    if (failure != null) {
+                        // Keep taking results so that the reader doesn't
+                        // block, without solving the ones no one will see
+                        result.cancel(true);
+                        continue;
+                    }
+                    try {
+                        write(result);
+                        if (pending.isEmpty()) {
+                            output.flush();
+                        }
+                    } catch (IOException e) {
+                        fail(e);
+                    }
+                }
+                if (failure == null) {
+                    try {
+                        output.flush();
+                    } catch (IOException e) {
+                        fail(e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void write(Future<String> result) throws IOException, InterruptedException {
+            try {
+                output.write(result.get());
+            } catch (ExecutionException e) {
+                output.write("error 0.000 " + e.getCause());
+            }
+            output.write(System.lineSeparator());
+        }
+
+        // Keeps the first error for the reader, and cancels the puzzles that
+        // are waiting to be written
+        private void fail(IOException e) {
+            failure = e;
+            for (Future<String> result: pending) {
+                result.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @param args the command line arguments, see the class documentation
+     */
+    public static void main(String[] args) {
+        HashMap<String, String> arguments = new HashMap<>();
+        for (String arg: args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                System.err.println("Arguments must be given as key=value: " + arg);
+                System.exit(1);
+            }
+            arguments.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        int threads = Integer.parseInt(arguments.getOrDefault("threads",
+                "" + Runtime.getRuntime().availableProcessors()));
+        HexGridPuzzle.Algorithm algorithm = HexGridPuzzle.Algorithm.valueOf(
+                arguments.getOrDefault("algorithm", "pathfinding").toUpperCase());
+        HexGridPuzzle.MoveOrder order = HexGridPuzzle.MoveOrder.valueOf(
+                arguments.getOrDefault("order", "natural").toUpperCase());
+        long timeout = Long.parseLong(arguments.getOrDefault("timeout", "0"));
+        int cacheSize = Integer.parseInt(arguments.getOrDefault("cache", "" + DEFAULT_CACHE_SIZE));
+        Path traceDirectory = arguments.containsKey("trace") ? Paths.get(arguments.get("trace")) : null;
+        SolverPortfolio portfolio = null;
+        int exitCode = 0;
+
+        long start = System.nanoTime();
+        try (BufferedReader input = new BufferedReader(arguments.containsKey("in") ?
+                new FileReader(arguments.get("in")) : new InputStreamReader(System.in));
+             Writer output = new BufferedWriter(arguments.containsKey("out") ?
+                new FileWriter(arguments.get("out")) : new OutputStreamWriter(System.out))) {
+            BatchSolver solver = new BatchSolver(algorithm, order, threads, timeout, cacheSize);
+            solver.setTraceDirectory(traceDirectory);
+            if (arguments.containsKey("portfolio")) {
+                portfolio = SolverPortfolio.parse(arguments.get("portfolio"));
+                solver.setPortfolio(portfolio);
+            }
+            int puzzles = solver.solve(input, output);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.format("%d puzzles in %.1f seconds (%.2f puzzles per second), %d from the cache%n",
+                    puzzles, seconds, puzzles / seconds, solver.getCacheHits());
+            if (portfolio != null) {
+                for (Map.Entry<SolverPortfolio.Entry, Long> wins: portfolio.getWins().entrySet()) {
+                    System.err.format("%s won %d%n", wins.getKey(), wins.getValue());
+                }
+            }
+        } catch (IOException | InterruptedException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            exitCode = 1;
+        } finally {
+            if (portfolio != null) {
+                portfolio.close();
+            }
+        }
+        // Only once the portfolio is closed, which exiting would skip
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
+    }
+}
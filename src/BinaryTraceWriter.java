@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records every value placed on a board and every value cleared from it,
+ * in a compact binary file that {@link TraceReplay} reads back.</br>
+ * </br>
+ * The file starts with a header: the magic number, the format version and
+ * the number of cells, and then the x and z coordinates and the initial
+ * value of every cell in index order, all as big endian ints. Every event
+ * after that is a record of RECORD_SIZE bytes: the cell, the value placed
+ * there or minus the value cleared from it, the depth, which is how many
+ * values the search has added to the initial ones, and the nanoseconds
+ * since the previous event. Records have a fixed size so that any event can
+ * be found without reading the ones before it.</br>
+ * </br>
+ * Records are gathered in a direct buffer and written through a file
+ * channel whenever it fills up, so recording an event costs a few stores
+ * and a look at the clock. Attach the writer with
+ * {@link Board#setRecorder(BinaryTraceWriter)}. A failed write stops the
+ * recording and is reported on close, rather than failing the search.
+ *
+ * @author NadavNV
+ */
+class BinaryTraceWriter implements AutoCloseable {
+    // "HXTR"
+    public static final int MAGIC = 0x48585452;
+    public static final int VERSION = 1;
+    public static final int RECORD_SIZE = 16;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    // How many values the board held when recording started
+    private final int initialCount;
+    private long lastNanos;
+    private long events;
+    private IOException failure;
+
+    // Creates the file, or replaces it, and writes the header for the given
+    // board as it is now.
+    public BinaryTraceWriter(Path path, Board initialState) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        BoardTopology topology = initialState.getTopology();
+        putInt(MAGIC);
+        putInt(VERSION);
+        putInt(initialState.size());
+        int count = 0;
+        for (int cell = 0; cell < initialState.size(); cell++) {
+            putInt(topology.getHex(cell).getX());
+            putInt(topology.getHex(cell).getZ());
+            putInt(initialState.get(cell));
+            if (!initialState.isEmpty(cell)) {
+                count++;
+            }
+        }
+        initialCount = count;
+    }
+
+    // Records the given value placed at the cell, leaving placedCount
+    // values on the board
+    public void place(int cell, int value, int placedCount) {
+        record(cell, value, placedCount);
+    }
+
+    // Records the given value cleared from the cell, leaving placedCount
+    // values on the board
+    public void clear(int cell, int value, int placedCount) {
+        record(cell, -value, placedCount);
+    }
+
+    private void record(int cell, int value, int placedCount) {
+        if (failure != null) {
+            return;
+        }
+        if (buffer.remaining() < RECORD_SIZE) {
+            flush();
+        }
+        // The first event is at time 0, however long the solve took to start
+        long now = System.nanoTime();
+        long delta = events == 0 ? 0 : Math.min(now - lastNanos, Integer.MAX_VALUE);
+        buffer.putInt(cell)
+              .putInt(value)
+              .putInt(placedCount - initialCount)
+              .putInt((int) delta);
+        lastNanos = now;
+        events++;
+    }
+
+    private void putInt(int value) throws IOException {
+        if (buffer.remaining() < Integer.BYTES) {
+            flush();
+        }
+        buffer.putInt(value);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+        buffer.clear();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // How many events were recorded
+    public long getEventCount() {
+        return events;
+    }
+
+    // Writes out what is left in the buffer and closes the file. Throws the
+    // first error the writer ran into.
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
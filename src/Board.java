@@ -0,0 +1,378 @@
+import java.util.Arrays;
+
+/**
+ * The values currently placed on a grid, stored by cell index as defined
+ * by a {@link BoardTopology}.
+ *
+ * @author NadavNV
+ */
+class Board {
+    // zero indicates an empty hex
+    public static final int EMPTY_HEX = 0;
+
+    private final BoardTopology topology;
+    // The value at each cell, or EMPTY_HEX
+    private final int[] values;
+    // The inverse of values: the cell of each value, or NO_CELL if the value
+    // isn't on the board. Kept up to date by place and clear.
+    private final int[] positionOfValue;
+    // How many values are on the board
+    private int placedCount;
+    // The bitboard of the cells that hold a value
+    private final long[] occupied;
+    // The hash of the set of occupied cells, kept up to date by place and
+    // clear by XORing in the cell's key
+    private long occupiedHash;
+    // The placement keys of the values on the board, XORed together in a
+    // Fenwick tree indexed by value, so that the hash of the values above
+    // any given one takes a logarithmic number of steps
+    private final long[] placementTree;
+    private long placementHash;
+    // Which values are on the board, one bit per value, with one summary
+    // bit per word telling whether it holds any placed value and another
+    // whether it lacks any, so that the next or previous placed value and
+    // the next missing one are found without scanning value by value
+    private final long[] placedValues;
+    private final long[] placedWords;
+    private final long[] incompleteWords;
+    // How many consecutive values are both on the board, counted by the
+    // lower one, split by whether they are adjacent as they should be. Kept
+    // up to date by place and clear, so that a broken link is known as soon
+    // as it's made, and a full board is solved when every link is satisfied.
+    private int satisfiedLinks;
+    private int brokenLinks;
+    // Told about every value placed and cleared, or null. Not copied along
+    // with the board.
+    private BinaryTraceWriter recorder;
+
+    public Board(BoardTopology topology) {
+        this.topology = topology;
+        this.values = new int[topology.size()];
+        this.positionOfValue = new int[topology.size() + 1];
+        Arrays.fill(positionOfValue, BoardTopology.NO_CELL);
+        this.occupied = new long[topology.getWordCount()];
+        this.placementTree = new long[topology.size() + 1];
+        this.placedValues = new long[((topology.size() + 1) >>> 6) + 1];
+        this.placedWords = new long[(placedValues.length >>> 6) + 1];
+        this.incompleteWords = new long[placedWords.length];
+        for (int word = 0; word < placedValues.length; word++) {
+            incompleteWords[word >>> 6] |= 1L << word;
+        }
+    }
+
+    // Creates an independent copy of the given board, sharing its topology.
+    public Board(Board other) {
+        this.topology = other.topology;
+        this.values = other.values.clone();
+        this.positionOfValue = other.positionOfValue.clone();
+        this.placedCount = other.placedCount;
+        this.occupied = other.occupied.clone();
+        this.occupiedHash = other.occupiedHash;
+        this.placementTree = other.placementTree.clone();
+        this.placementHash = other.placementHash;
+        this.placedValues = other.placedValues.clone();
+        this.placedWords = other.placedWords.clone();
+        this.incompleteWords = other.incompleteWords.clone();
+        this.satisfiedLinks = other.satisfiedLinks;
+        this.brokenLinks = other.brokenLinks;
+    }
+
+    // Makes this board hold the same values as another board with the same
+    // topology, reusing its arrays. The recorder stays as it is and isn't
+    // told about the change.
+    public void copyFrom(Board other) {
+        System.arraycopy(other.values, 0, values, 0, values.length);
+        System.arraycopy(other.positionOfValue, 0, positionOfValue, 0, positionOfValue.length);
+        this.placedCount = other.placedCount;
+        System.arraycopy(other.occupied, 0, occupied, 0, occupied.length);
+        this.occupiedHash = other.occupiedHash;
+        System.arraycopy(other.placementTree, 0, placementTree, 0, placementTree.length);
+        this.placementHash = other.placementHash;
+        System.arraycopy(other.placedValues, 0, placedValues, 0, placedValues.length);
+        System.arraycopy(other.placedWords, 0, placedWords, 0, placedWords.length);
+        System.arraycopy(other.incompleteWords, 0, incompleteWords, 0, incompleteWords.length);
+        this.satisfiedLinks = other.satisfiedLinks;
+        this.brokenLinks = other.brokenLinks;
+    }
+
+    public BoardTopology getTopology() {
+        return topology;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public int get(int cell) {
+        return values[cell];
+    }
+
+    public boolean isEmpty(int cell) {
+        return values[cell] == EMPTY_HEX;
+    }
+
+    // The cell holding the given value, or NO_CELL if it isn't on the board
+    public int getPosition(int value) {
+        return positionOfValue[value];
+    }
+
+    // Whether the given value is on the board. Values outside the range of
+    // the board are never on it.
+    public boolean contains(int value) {
+        return value > EMPTY_HEX && value < positionOfValue.length &&
+               positionOfValue[value] != BoardTopology.NO_CELL;
+    }
+
+    public boolean isFull() {
+        return placedCount == values.length;
+    }
+
+    public void place(int cell, int value) {
+        values[cell] = value;
+        positionOfValue[value] = cell;
+        placedCount++;
+        occupied[cell >>> 6] |= 1L << cell;
+        occupiedHash ^= topology.getOccupiedKey(cell);
+        togglePlacement(cell, value);
+        markValue(value);
+        countLinks(cell, value, 1);
+        if (recorder != null) {
+            recorder.place(cell, value, placedCount);
+        }
+    }
+
+    public void clear(int cell) {
+        if (recorder != null) {
+            recorder.clear(cell, values[cell], placedCount - 1);
+        }
+        countLinks(cell, values[cell], -1);
+        togglePlacement(cell, values[cell]);
+        unmarkValue(values[cell]);
+        positionOfValue[values[cell]] = BoardTopology.NO_CELL;
+        values[cell] = EMPTY_HEX;
+        placedCount--;
+        occupied[cell >>> 6] &= ~(1L << cell);
+        occupiedHash ^= topology.getOccupiedKey(cell);
+    }
+
+    // Records every value placed on this board and cleared from it from now
+    // on, or stops recording if recorder is null
+    public void setRecorder(BinaryTraceWriter recorder) {
+        this.recorder = recorder;
+    }
+
+    // The given word of the bitboard of cells that hold a value
+    public long getOccupied(int word) {
+        return occupied[word];
+    }
+
+    // The first empty cell from the given one on, or size() if there is
+    // none. Skips whole words of filled cells at a time.
+    public int getNextEmptyCell(int cell) {
+        int word = cell >>> 6;
+        if (word >= occupied.length) {
+            return values.length;
+        }
+        long empty = ~occupied[word] & (-1L << cell);
+        while (empty == 0) {
+            if (++word == occupied.length) {
+                return values.length;
+            }
+            empty = ~occupied[word];
+        }
+        return Math.min((word << 6) + Long.numberOfTrailingZeros(empty), values.length);
+    }
+
+    // Adds the links of the given value at the cell to the values before and
+    // after it that are on the board to the counts when sign is 1, or
+    // removes them when it's -1
+    private void countLinks(int cell, int value, int sign) {
+        if (value > 1 && positionOfValue[value - 1] != BoardTopology.NO_CELL) {
+            if (isAdjacentTo(cell, value - 1)) {
+                satisfiedLinks += sign;
+            } else {
+                brokenLinks += sign;
+            }
+        }
+        if (value < values.length && positionOfValue[value + 1] != BoardTopology.NO_CELL) {
+            if (isAdjacentTo(cell, value + 1)) {
+                satisfiedLinks += sign;
+            } else {
+                brokenLinks += sign;
+            }
+        }
+    }
+
+    // Whether two consecutive values on the board aren't adjacent, in which
+    // case the board can't be completed
+    public boolean hasBrokenLinks() {
+        return brokenLinks > 0;
+    }
+
+    // Adds or removes the placement key of the value at the cell
+    private void togglePlacement(int cell, int value) {
+        long key = topology.getPlacementKey(cell, value);
+        placementHash ^= key;
+        for (int index = value; index < placementTree.length; index += index & -index) {
+            placementTree[index] ^= key;
+        }
+    }
+
+    // The hash of which values above the given one are on the board, and
+    // in which cells
+    public long getPlacementHashAbove(int value) {
+        long below = 0;
+        for (int index = value; index > 0; index -= index & -index) {
+            below ^= placementTree[index];
+        }
+        return placementHash ^ below;
+    }
+
+    // The hash of the search state where nextValue is the next value to
+    // place: the occupied cells, the cell of the value before it, nextValue
+    // itself, and the values above it that are already on the board, which
+    // aren't necessarily the same for every way of reaching the state.
+    // Every value below nextValue must be on the board.
+    public long getStateHash(int nextValue) {
+        return occupiedHash ^ topology.getHeadKey(positionOfValue[nextValue - 1]) ^
+               topology.getValueKey(nextValue) ^ getPlacementHashAbove(nextValue);
+    }
+
+    // The given word of the bitboard of the cell's empty neighbors, which
+    // must be between the cell's first and last neighbor words.
+    public long getEmptyNeighbors(int cell, int word) {
+        return topology.getNeighborMask(cell, word) & ~occupied[word];
+    }
+
+    public int countEmptyNeighbors(int cell) {
+        int count = 0;
+        for (int word = topology.getFirstNeighborWord(cell); word <= topology.getLastNeighborWord(cell); word++) {
+            count += Long.bitCount(getEmptyNeighbors(cell, word));
+        }
+        return count;
+    }
+
+    // Sets the bit of a value that was just placed, and its word's summaries
+    private void markValue(int value) {
+        int word = value >>> 6;
+        placedValues[word] |= 1L << value;
+        placedWords[word >>> 6] |= 1L << word;
+        if (placedValues[word] == -1L) {
+            incompleteWords[word >>> 6] &= ~(1L << word);
+        }
+    }
+
+    // Clears the bit of a value that was just removed, and its word's summaries
+    private void unmarkValue(int value) {
+        int word = value >>> 6;
+        placedValues[word] &= ~(1L << value);
+        incompleteWords[word >>> 6] |= 1L << word;
+        if (placedValues[word] == 0) {
+            placedWords[word >>> 6] &= ~(1L << word);
+        }
+    }
+
+    // The lowest value from the given one up whose bit in placedValues is
+    // set, or clear if missing is set, or -1 if there is none. The bits past
+    // the last value are never set, so a missing one found there is past the
+    // end of the board.
+    private int findNext(int from, boolean missing) {
+        int word = from >>> 6;
+        if (word >= placedValues.length) {
+            return -1;
+        }
+        long bits = (missing ? ~placedValues[word] : placedValues[word]) & (-1L << from);
+        if (bits == 0) {
+            long[] summary = missing ? incompleteWords : placedWords;
+            int next = word + 1;
+            int summaryWord = next >>> 6;
+            if (summaryWord >= summary.length) {
+                return -1;
+            }
+            long summaryBits = summary[summaryWord] & (-1L << next);
+            while (summaryBits == 0) {
+                if (++summaryWord == summary.length) {
+                    return -1;
+                }
+                summaryBits = summary[summaryWord];
+            }
+            word = (summaryWord << 6) + Long.numberOfTrailingZeros(summaryBits);
+            bits = missing ? ~placedValues[word] : placedValues[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    // The highest placed value from the given one down, or -1 if there is none
+    private int findPrevious(int from) {
+        int word = from >>> 6;
+        long bits = placedValues[word] & (-1L >>> (63 - (from & 63)));
+        if (bits == 0) {
+            int previous = word - 1;
+            if (previous < 0) {
+                return -1;
+            }
+            int summaryWord = previous >>> 6;
+            long summaryBits = placedWords[summaryWord] & (-1L >>> (63 - (previous & 63)));
+            while (summaryBits == 0) {
+                if (--summaryWord < 0) {
+                    return -1;
+                }
+                summaryBits = placedWords[summaryWord];
+            }
+            word = (summaryWord << 6) + 63 - Long.numberOfLeadingZeros(summaryBits);
+            bits = placedValues[word];
+        }
+        return (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+    }
+
+    // The lowest value above the given one that isn't on the board yet, or
+    // EMPTY_HEX if there is none.
+    public int getNextMissingValue(int value) {
+        int next = findNext(value + 1, true);
+        return next < 0 || next > values.length ? EMPTY_HEX : next;
+    }
+
+    // The lowest value above the given one that is on the board, or
+    // EMPTY_HEX if there is none.
+    public int getNextPlacedValue(int value) {
+        int next = findNext(value + 1, false);
+        return next < 0 ? EMPTY_HEX : next;
+    }
+
+    // The highest value below the given one that is on the board, or
+    // EMPTY_HEX if there is none.
+    public int getPreviousPlacedValue(int value) {
+        if (value <= 1) {
+            return EMPTY_HEX;
+        }
+        int previous = findPrevious(Math.min(value - 1, values.length));
+        return previous <= 0 ? EMPTY_HEX : previous;
+    }
+
+    // Whether any neighbor of the given cell holds the given value
+    public boolean isAdjacentTo(int cell, int value) {
+        for (int n = topology.getNeighborStart(cell); n < topology.getNeighborStart(cell + 1); n++) {
+            if (values[topology.getNeighbor(n)] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The highest value on the board, or EMPTY_HEX if the board is empty
+    public int getHighestValue() {
+        for (int value = positionOfValue.length - 1; value > EMPTY_HEX; value--) {
+            if (positionOfValue[value] != BoardTopology.NO_CELL) {
+                return value;
+            }
+        }
+        return EMPTY_HEX;
+    }
+
+    // Whether the board is full and every value is adjacent to both its
+    // predecessor and its successor, which is when every one of the
+    // size() - 1 links is satisfied.
+    public boolean isSolved() {
+        return isFull() && satisfiedLinks == values.length - 1;
+    }
+}
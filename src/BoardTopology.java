@@ -0,0 +1,279 @@
+import java.util.*;
+
+/**
+ * The fixed shape of a hexagonal grid: a hexagon of a given radius, or any
+ * set of hexes, which may have holes or be irregular in any way.</br>
+ * </br>
+ * Every hex of the shape is mapped to a dense cell index, so that the state
+ * of the board can be kept in plain int arrays. Cells are indexed in printing
+ * order (top to bottom, left to right), see {@link CubeHex#compareTo(CubeHex)},
+ * which is also the order of their keys, see {@link CubeHex#getKey()}, so a
+ * hex is found by a binary search over the keys of the cells. The neighbors
+ * of every cell are computed once and kept in compressed rows: the
+ * neighbors of all the cells one after the other, and where the neighbors
+ * of each cell start.</br>
+ * </br>
+ * For bitboards, sets of cells held as long words where bit i of word w
+ * stands for cell 64w + i, the neighbors of every cell are also kept as a
+ * mask. Neighbors are never far apart in printing order, so each mask is
+ * stored only for the few words between its lowest and highest neighbor.</br>
+ * </br>
+ * The topology also holds the random keys used to hash search states, see
+ * {@link Board#getStateHash(int)}. They are drawn from a fixed seed so that
+ * hashes are the same from run to run.</br>
+ * </br>
+ * Finally, the cell each cell is mapped to under every symmetry of the
+ * hexagon is kept in a table as well, see {@link CubeHex#transform(int)}.
+ * A hexagon centered on the origin is mapped onto itself by all of them,
+ * while other shapes may only have some of them, or none but the identity.
+ *
+ * @author NadavNV
+ */
+class BoardTopology {
+    // Marks a missing neighbor or a hex that isn't on the grid
+    public static final int NO_CELL = -1;
+    // The maximum absolute value a coordinate of a cell has in any axis
+    private final int maxRadius;
+    // The hex at each cell index
+    private final CubeHex[] cells;
+    // The key of the hex at each cell index, in increasing order. Only used
+    // when translating coordinates, never during the search.
+    private final long[] cellKeys;
+    // The x, y and z coordinates of every cell in turn, so that distances
+    // are worked out without going through the hexes
+    private final int[] coordinates;
+    // The neighbors of cell c are neighborCells[neighborStart[c]] to
+    // neighborCells[neighborStart[c + 1] - 1]
+    private final int[] neighborStart;
+    private final int[] neighborCells;
+    // The number of words in a bitboard of this grid
+    private final int wordCount;
+    // The first and last word of each cell's neighbor mask
+    private final int[] firstNeighborWord;
+    private final int[] lastNeighborWord;
+    // The words of all neighbor masks one after the other. The mask of a
+    // cell starts at neighborMaskStart[cell] with its first word.
+    private final int[] neighborMaskStart;
+    private final long[] neighborMasks;
+    // The seed of the random hash keys
+    private static final long HASH_SEED = 0x9E3779B97F4A7C15L;
+    // Random keys for a cell holding a value, for a cell being the last
+    // one placed, and for the value to be placed next
+    private final long[] occupiedKeys;
+    private final long[] headKeys;
+    private final long[] valueKeys;
+    // symmetries[symmetry][cell] is the cell that cell is mapped to, or
+    // null if the symmetry doesn't map the shape onto itself
+    private final int[][] symmetries;
+
+    // A hexagon of the given radius centered on the origin
+    public BoardTopology(int maxRadius) throws IllegalArgumentException {
+        this(hexagon(maxRadius));
+    }
+
+    // A grid of the given hexes, in any order
+    public BoardTopology(Collection<CubeHex> shape) throws IllegalArgumentException {
+        if (shape.isEmpty()) {
+            throw new IllegalArgumentException("A grid must have at least one hex");
+        }
+        cells = new TreeSet<>(shape).toArray(new CubeHex[0]);
+        cellKeys = new long[cells.length];
+        coordinates = new int[cells.length * 3];
+        int radius = 0;
+        for (int i = 0; i < cells.length; i++) {
+            cellKeys[i] = cells[i].getKey();
+            coordinates[3 * i] = cells[i].getX();
+            coordinates[3 * i + 1] = cells[i].getY();
+            coordinates[3 * i + 2] = cells[i].getZ();
+            radius = Math.max(radius, cells[i].distanceTo(CubeHex.ORIGIN));
+        }
+        maxRadius = radius;
+
+        neighborStart = new int[cells.length + 1];
+        int[] found = new int[cells.length * CubeHex.DIRECTION_COUNT];
+        int neighborCount = 0;
+        for (int i = 0; i < cells.length; i++) {
+            neighborStart[i] = neighborCount;
+            for (int direction = 0; direction < CubeHex.DIRECTION_COUNT; direction++) {
+                int neighbor = indexOf(cells[i].getNeighbor(direction));
+                if (neighbor != NO_CELL) {
+                    found[neighborCount++] = neighbor;
+                }
+            }
+        }
+        neighborStart[cells.length] = neighborCount;
+        neighborCells = Arrays.copyOf(found, neighborCount);
+
+        wordCount = (cells.length + 63) >>> 6;
+        firstNeighborWord = new int[cells.length];
+        lastNeighborWord = new int[cells.length];
+        neighborMaskStart = new int[cells.length];
+        int maskWords = 0;
+        for (int i = 0; i < cells.length; i++) {
+            int first = wordCount;
+            int last = -1;
+            for (int n = neighborStart[i]; n < neighborStart[i + 1]; n++) {
+                first = Math.min(first, neighborCells[n] >>> 6);
+                last = Math.max(last, neighborCells[n] >>> 6);
+            }
+            if (last < 0) {
+                // A cell without neighbors gets an empty mask
+                first = last = 0;
+            }
+            firstNeighborWord[i] = first;
+            lastNeighborWord[i] = last;
+            neighborMaskStart[i] = maskWords;
+            maskWords += last - first + 1;
+        }
+        neighborMasks = new long[maskWords];
+        for (int i = 0; i < cells.length; i++) {
+            for (int n = neighborStart[i]; n < neighborStart[i + 1]; n++) {
+                int neighbor = neighborCells[n];
+                neighborMasks[neighborMaskStart[i] + (neighbor >>> 6) - firstNeighborWord[i]] |= 1L << neighbor;
+            }
+        }
+
+        SplittableRandom random = new SplittableRandom(HASH_SEED);
+        occupiedKeys = new long[cells.length];
+        headKeys = new long[cells.length];
+        valueKeys = new long[cells.length + 1];
+        for (int i = 0; i < cells.length; i++) {
+            occupiedKeys[i] = random.nextLong();
+            headKeys[i] = random.nextLong();
+        }
+        for (int value = 0; value <= cells.length; value++) {
+            valueKeys[value] = random.nextLong();
+        }
+
+        symmetries = new int[CubeHex.SYMMETRY_COUNT][];
+        for (int symmetry = 0; symmetry < CubeHex.SYMMETRY_COUNT; symmetry++) {
+            int[] mapping = new int[cells.length];
+            for (int i = 0; i < cells.length && mapping != null; i++) {
+                mapping[i] = indexOf(cells[i].transform(symmetry));
+                if (mapping[i] == NO_CELL) {
+                    mapping = null;
+                }
+            }
+            symmetries[symmetry] = mapping;
+        }
+    }
+
+    // The hexes of a hexagon of the given radius centered on the origin
+    private static ArrayList<CubeHex> hexagon(int maxRadius) throws IllegalArgumentException {
+        if (maxRadius < 0) {
+            throw new IllegalArgumentException("Radius must be an unsigned integer");
+        }
+        ArrayList<CubeHex> hexes = new ArrayList<>();
+        for (int z = -maxRadius; z <= maxRadius; z++) {
+            for (int x = Math.max(-maxRadius, -maxRadius - z); x <= Math.min(maxRadius, maxRadius - z); x++) {
+                hexes.add(new CubeHex(x, -x - z, z));
+            }
+        }
+        return hexes;
+    }
+
+    public boolean isValidCoordinate(CubeHex point) {
+        return indexOf(point) != NO_CELL;
+    }
+
+    // Whether the grid is a whole hexagon centered on the origin
+    public boolean isHexagon() {
+        return cells.length == 3 * maxRadius * (maxRadius + 1) + 1;
+    }
+    public int getMaxRadius() {
+        return maxRadius;
+    }
+
+    // The number of hexes in the grid
+    public int size() {
+        return cells.length;
+    }
+
+    public CubeHex getHex(int cell) {
+        return cells[cell];
+    }
+
+    // The cell index of the given hex, or NO_CELL if it isn't on the grid.
+    public int indexOf(CubeHex hex) {
+        int cell = Arrays.binarySearch(cellKeys, hex.getKey());
+        return cell < 0 ? NO_CELL : cell;
+    }
+
+    // Where the neighbors of the given cell start, see getNeighbor. Those
+    // of cell c end where the neighbors of c + 1 start.
+    public int getNeighborStart(int cell) {
+        return neighborStart[cell];
+    }
+
+    // The neighbor at the given position of the compressed rows
+    public int getNeighbor(int position) {
+        return neighborCells[position];
+    }
+
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    public int getFirstNeighborWord(int cell) {
+        return firstNeighborWord[cell];
+    }
+
+    public int getLastNeighborWord(int cell) {
+        return lastNeighborWord[cell];
+    }
+
+    // The given word of the cell's neighbor mask, which must be between its
+    // first and last neighbor words.
+    public long getNeighborMask(int cell, int word) {
+        return neighborMasks[neighborMaskStart[cell] + word - firstNeighborWord[cell]];
+    }
+
+    // Adds the neighbors of the given cell to a bitboard
+    public void addNeighborMask(int cell, long[] bitboard) {
+        int start = neighborMaskStart[cell] - firstNeighborWord[cell];
+        for (int word = firstNeighborWord[cell]; word <= lastNeighborWord[cell]; word++) {
+            bitboard[word] |= neighborMasks[start + word];
+        }
+    }
+
+    public long getOccupiedKey(int cell) {
+        return occupiedKeys[cell];
+    }
+
+    public long getHeadKey(int cell) {
+        return headKeys[cell];
+    }
+
+    public long getValueKey(int value) {
+        return valueKeys[value];
+    }
+
+    // A key for the given cell holding the given value. The keys of the
+    // cell and the value are mixed rather than XORed, as XORed keys would
+    // hash two values the same as the two values swapping cells.
+    public long getPlacementKey(int cell, int value) {
+        long key = occupiedKeys[cell] + valueKeys[value] * 0xBF58476D1CE4E5B9L;
+        key = (key ^ (key >>> 31)) * 0x94D049BB133111EBL;
+        return key ^ (key >>> 29);
+    }
+
+    // Whether the given symmetry maps the grid onto itself
+    public boolean hasSymmetry(int symmetry) {
+        return symmetries[symmetry] != null;
+    }
+
+    // The cell that the given cell is mapped to under the given symmetry,
+    // which must map the grid onto itself
+    public int transform(int symmetry, int cell) {
+        return symmetries[symmetry][cell];
+    }
+
+    // The same as the distance between the hexes of the cells, see
+    // CubeHex.distanceTo
+    public int distance(int from, int to) {
+        int dx = Math.abs(coordinates[3 * from] - coordinates[3 * to]);
+        int dy = Math.abs(coordinates[3 * from + 1] - coordinates[3 * to + 1]);
+        int dz = Math.abs(coordinates[3 * from + 2] - coordinates[3 * to + 2]);
+        return Math.max(Math.max(dx, dy), dz);
+    }
+}
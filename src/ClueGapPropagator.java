@@ -0,0 +1,122 @@
+import java.util.Arrays;
+
+/**
+ * Checks that every gap between consecutive values on the board can still be
+ * bridged.</br>
+ * </br>
+ * If a and b are placed with nothing between them placed yet, the values
+ * a+1 to b-1 have to form a path of empty cells from a to b, so a path of at
+ * most b-a-1 empty cells must exist between them. The hex distance gives a
+ * quick lower bound, and a breadth first search through the empty cells,
+ * bounded by the length of the gap, gives the exact shortest such path.</br>
+ * </br>
+ * Parity or colouring bounds don't help here: the hex grid has triangles,
+ * so a path can always be lengthened by one step when there's room for it.
+ * </br></br>
+ * Filling a cell can only lengthen the shortest path of the gaps that it lies
+ * on the way of, the ones for which it's within the gap's length of both
+ * ends, so only those gaps are searched again after a placement.
+ *
+ * @author NadavNV
+ */
+class ClueGapPropagator {
+    private final Board board;
+    private final BoardTopology topology;
+    private final int wordCount;
+    // The bitboards of the breadth first search: the cells visited so far,
+    // the cells reached in the last layer, and their neighbors
+    private final long[] visited;
+    private final long[] frontier;
+    private final long[] next;
+
+    public ClueGapPropagator(Board board) {
+        this.board = board;
+        this.topology = board.getTopology();
+        this.wordCount = topology.getWordCount();
+        this.visited = new long[wordCount];
+        this.frontier = new long[wordCount];
+        this.next = new long[wordCount];
+    }
+
+    // Whether every gap between consecutive values on the board can be
+    // bridged. Used to reject a puzzle before searching it.
+    public boolean isFeasible() {
+        int value = board.getNextPlacedValue(Board.EMPTY_HEX);
+        int next = board.getNextPlacedValue(value);
+        while (next != Board.EMPTY_HEX) {
+            if (!canBridge(value, next)) {
+                return false;
+            }
+            value = next;
+            next = board.getNextPlacedValue(value);
+        }
+        return true;
+    }
+
+    // Whether every gap can still be bridged after a value was placed at
+    // the given cell, assuming they all could before.
+    public boolean isFeasibleAfter(int cell) {
+        int value = board.getNextPlacedValue(Board.EMPTY_HEX);
+        int next = board.getNextPlacedValue(value);
+        while (next != Board.EMPTY_HEX) {
+            int from = board.getPosition(value);
+            int to = board.getPosition(next);
+            if (topology.distance(from, cell) + topology.distance(cell, to) <= next - value &&
+                    !canBridge(value, next)) {
+                return false;
+            }
+            value = next;
+            next = board.getNextPlacedValue(value);
+        }
+        return true;
+    }
+
+    // Whether the values from and to, both on the board, can be joined by
+    // a path of at most to - from - 1 empty cells.
+    private boolean canBridge(int fromValue, int toValue) {
+        int source = board.getPosition(fromValue);
+        int target = board.getPosition(toValue);
+        int steps = toValue - fromValue;
+        int distance = topology.distance(source, target);
+        if (distance > steps) {
+            return false;
+        }
+        if (steps == 1) {
+            // Two distinct cells within distance 1 are adjacent
+            return true;
+        }
+        Arrays.fill(visited, 0);
+        Arrays.fill(frontier, 0);
+        visited[source >>> 6] |= 1L << source;
+        frontier[source >>> 6] |= 1L << source;
+        for (int layer = 1; layer <= steps; layer++) {
+            Arrays.fill(next, 0);
+            for (int word = 0; word < wordCount; word++) {
+                for (long bits = frontier[word]; bits != 0; bits &= bits - 1) {
+                    topology.addNeighborMask((word << 6) + Long.numberOfTrailingZeros(bits), next);
+                }
+            }
+            if ((next[target >>> 6] & (1L << target)) != 0) {
+                return true;
+            }
+            boolean reachedAny = false;
+            for (int word = 0; word < wordCount; word++) {
+                long fresh = next[word] & ~board.getOccupied(word) & ~visited[word];
+                visited[word] |= fresh;
+                // Drop the cells that are too far to reach the target in time
+                for (long bits = fresh; bits != 0; bits &= bits - 1) {
+                    int cell = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    if (topology.distance(cell, target) > steps - layer) {
+                        fresh &= ~(1L << cell);
+                    }
+                }
+                frontier[word] = fresh;
+                reachedAny |= fresh != 0;
+            }
+            if (!reachedAny) {
+                return false;
+            }
+        }
+        return false;
+    }
+}
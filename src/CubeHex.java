@@ -21,6 +21,15 @@ class CubeHex implements Comparable<CubeHex> {
             add(new CubeHex(0, -1, 1));
         }
     };
+    // The number of neighbors every hex has
+    public static final int DIRECTION_COUNT = 6;
+    // The number of ways to map a hexagon centered on the origin onto
+    // itself: 6 rotations, each with or without a reflection
+    public static final int SYMMETRY_COUNT = 12;
+    // Mixes the bits of hash codes, so that nearby hexes spread over the
+    // buckets of a hash table
+    static final int HASH_MULTIPLIER = 0x9E3779B9;
+    public static final CubeHex ORIGIN = new CubeHex(0, 0, 0);
     
     private final int x;
     private final int y;
@@ -48,9 +57,18 @@ class CubeHex implements Comparable<CubeHex> {
         return false;
     }
 
+    // x and z pack into 32 bits without two hexes within 32767 of the
+    // origin sharing a hash code, and multiplying by an odd number keeps
+    // them apart.
     @Override
     public int hashCode() {
-        return x + (y * 10) + (z * 100);
+        return ((z << 16) ^ (x & 0xFFFF)) * HASH_MULTIPLIER;
+    }
+    
+    // z and x packed into a long, which no two hexes share. Ordering hexes
+    // by their keys puts them in printing order, as compareTo does.
+    public long getKey() {
+        return ((long) z << 32) + x;
     }
 
     @Override
@@ -82,6 +100,34 @@ class CubeHex implements Comparable<CubeHex> {
         return Math.max(Math.max(Math.abs(x - other.x), Math.abs(y - other.y)), Math.abs(z - other.z));
     }
     
+    // The neighbor in the given direction, where direction is an index
+    // between 0 and DIRECTION_COUNT - 1.
+    public CubeHex getNeighbor(int direction) {
+        return move(DIRECTIONS.get(direction));
+    }
+    
+    // This hex rotated by 60 degrees clockwise around the origin
+    public CubeHex rotate() {
+        return new CubeHex(-z, -x, -y);
+    }
+    
+    // This hex mirrored across the line through the origin where x is zero
+    public CubeHex reflect() {
+        return new CubeHex(-x, -z, -y);
+    }
+    
+    // This hex under one of the symmetries of the hexagon, where symmetry is
+    // an index between 0 and SYMMETRY_COUNT - 1. Symmetry 0 leaves the hex
+    // as it is, symmetries 1 to 5 rotate it that many times, and symmetries
+    // 6 to 11 reflect it before rotating it.
+    public CubeHex transform(int symmetry) {
+        CubeHex result = symmetry >= DIRECTION_COUNT ? reflect() : this;
+        for (int i = 0; i < symmetry % DIRECTION_COUNT; i++) {
+            result = result.rotate();
+        }
+        return result;
+    }
+    
     public HashSet<CubeHex> getNeighbors() {
         HashSet<CubeHex> neighbors = new HashSet<>();
         CubeHex neighbor;
@@ -104,23 +150,4 @@ class CubeHex implements Comparable<CubeHex> {
             return Integer.compare(z, o.z);
         }
     }
-    
-    public static class DistanceComparator implements Comparator<CubeHex> {
-        // Compare by distance to this coordinate.
-        private CubeHex root;
-        
-        public DistanceComparator(CubeHex root) {
-            this.root = root;
-        }
-        
-        @Override
-        public int compare(CubeHex o1, CubeHex o2) {
-//            System.out.println("Distance of " + o1 + " from " + root + ":");
-//            System.out.println(o1.distanceTo(root));            
-//            System.out.println("Distance of " + o2 + " from " + root + ":");
-//            System.out.println(o1.distanceTo(root));
-            return Integer.compare(o1.distanceTo(root), o2.distanceTo(root));
-        }
-        
-    }
 }
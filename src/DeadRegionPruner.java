@@ -0,0 +1,186 @@
+import java.util.Arrays;
+
+/**
+ * Detects placements after which the board can no longer be completed
+ * because the empty cells can't all be joined into the path.</br>
+ * </br>
+ * After a value is placed, three kinds of dead state are looked for around
+ * the cells that the placement affected:
+ * <ul>
+ * <li>A placed value whose missing predecessor or successor has no empty
+ * neighbor left to go in.</li>
+ * <li>An empty cell with fewer than two neighbors it can connect through,
+ * which is only possible for the ends of the whole path, 1 and the highest
+ * value.</li>
+ * <li>A region of empty cells that doesn't touch any placed value with a
+ * missing predecessor or successor, so the path can never enter it.</li>
+ * </ul>
+ * A placed value is called open here if its predecessor or successor is
+ * still missing, as only open values can be connected to empty cells.</br>
+ * </br>
+ * The region check is a flood fill over bitboards that grows the region a
+ * whole layer at a time and stops as soon as it finds an open value. It
+ * reuses preallocated bitboards, so it adds no allocation per node.
+ *
+ * @author NadavNV
+ */
+class DeadRegionPruner {
+    private final Board board;
+    private final BoardTopology topology;
+    private final int wordCount;
+    // The regions that the current check already found to touch an open
+    // value
+    private final long[] reachable;
+    // The cells the current flood fill has visited, both the empty cells of
+    // the region and the values around it
+    private final long[] region;
+    // The empty cells the current flood fill reached last
+    private final long[] frontier;
+    // The neighbors of the frontier
+    private final long[] next;
+
+    public DeadRegionPruner(Board board) {
+        this.board = board;
+        this.topology = board.getTopology();
+        this.wordCount = topology.getWordCount();
+        this.reachable = new long[wordCount];
+        this.region = new long[wordCount];
+        this.frontier = new long[wordCount];
+        this.next = new long[wordCount];
+    }
+
+    // Whether the board can't be completed after a value was placed at
+    // the given cell.
+    public boolean isDead(int cell) {
+        int value = board.get(cell);
+        if (isStuck(cell)) {
+            return true;
+        }
+        for (int word = topology.getFirstNeighborWord(cell); word <= topology.getLastNeighborWord(cell); word++) {
+            for (long placed = topology.getNeighborMask(cell, word) & board.getOccupied(word);
+                    placed != 0; placed &= placed - 1) {
+                if (isStuck((word << 6) + Long.numberOfTrailingZeros(placed))) {
+                    return true;
+                }
+            }
+        }
+        // Only regions that touch the new value, or whose openness may have
+        // changed along with its predecessor and successor, can be affected.
+        Arrays.fill(reachable, 0);
+        return hasDeadEmptyNeighbor(cell) ||
+               hasDeadEmptyNeighbor(board.getPosition(value - 1)) ||
+               (value < board.size() && hasDeadEmptyNeighbor(board.getPosition(value + 1)));
+    }
+
+    private boolean isOpen(int cell) {
+        int value = board.get(cell);
+        return (value > 1 && !board.contains(value - 1)) ||
+               (value < board.size() && !board.contains(value + 1));
+    }
+
+    // Whether the value at the given cell has fewer empty neighbors than it
+    // has missing neighbors in the path.
+    private boolean isStuck(int cell) {
+        int value = board.get(cell);
+        int missing = 0;
+        if (value > 1 && !board.contains(value - 1)) {
+            missing++;
+        }
+        if (value < board.size() && !board.contains(value + 1)) {
+            missing++;
+        }
+        return missing > 0 && board.countEmptyNeighbors(cell) < missing;
+    }
+
+    private boolean hasDeadEmptyNeighbor(int cell) {
+        if (cell == BoardTopology.NO_CELL) {
+            return false;
+        }
+        for (int word = topology.getFirstNeighborWord(cell); word <= topology.getLastNeighborWord(cell); word++) {
+            for (long empty = board.getEmptyNeighbors(cell, word); empty != 0; empty &= empty - 1) {
+                int neighbor = (word << 6) + Long.numberOfTrailingZeros(empty);
+                if (isDeadEnd(neighbor) || isStranded(neighbor)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // How many neighbors the given empty cell could connect to in the path,
+    // i.e. its empty neighbors and open values, counting no further than
+    // limit.
+    public int countConnections(int cell, int limit) {
+        int connections = board.countEmptyNeighbors(cell);
+        for (int word = topology.getFirstNeighborWord(cell);
+                connections < limit && word <= topology.getLastNeighborWord(cell); word++) {
+            for (long placed = topology.getNeighborMask(cell, word) & board.getOccupied(word);
+                    placed != 0 && connections < limit; placed &= placed - 1) {
+                if (isOpen((word << 6) + Long.numberOfTrailingZeros(placed))) {
+                    connections++;
+                }
+            }
+        }
+        return Math.min(connections, limit);
+    }
+
+    // Whether the given empty cell can't have both a predecessor and a
+    // successor, and the path has no missing end left that it could be.
+    private boolean isDeadEnd(int cell) {
+        int connections = countConnections(cell, 2);
+        if (connections >= 2) {
+            return false;
+        }
+        if (connections == 0) {
+            return board.size() > 1;
+        }
+        return board.contains(1) && board.contains(board.size());
+    }
+
+    // Whether the region of empty cells containing the given cell doesn't
+    // touch any open value.
+    private boolean isStranded(int cell) {
+        if ((reachable[cell >>> 6] & (1L << cell)) != 0) {
+            return false;
+        }
+        Arrays.fill(region, 0);
+        Arrays.fill(frontier, 0);
+        region[cell >>> 6] |= 1L << cell;
+        frontier[cell >>> 6] |= 1L << cell;
+        boolean growing = true;
+        while (growing) {
+            Arrays.fill(next, 0);
+            for (int word = 0; word < wordCount; word++) {
+                for (long bits = frontier[word]; bits != 0; bits &= bits - 1) {
+                    topology.addNeighborMask((word << 6) + Long.numberOfTrailingZeros(bits), next);
+                }
+            }
+            growing = false;
+            for (int word = 0; word < wordCount; word++) {
+                long fresh = next[word] & ~region[word];
+                region[word] |= fresh;
+                if ((fresh & reachable[word]) != 0) {
+                    markReachable();
+                    return false;
+                }
+                for (long placed = fresh & board.getOccupied(word); placed != 0; placed &= placed - 1) {
+                    if (isOpen((word << 6) + Long.numberOfTrailingZeros(placed))) {
+                        markReachable();
+                        return false;
+                    }
+                }
+                frontier[word] = fresh & ~board.getOccupied(word);
+                growing |= frontier[word] != 0;
+            }
+        }
+        return true;
+    }
+
+    private void markReachable() {
+        for (int word = 0; word < wordCount; word++) {
+            // Only the empty cells, as a value around the region may also
+            // border other regions
+            reachable[word] |= region[word] & ~board.getOccupied(word);
+        }
+    }
+}
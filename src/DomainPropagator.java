@@ -0,0 +1,385 @@
+import java.util.Arrays;
+
+/**
+ * Keeps track of the values that can still go in every empty cell, and
+ * places the values that have only one place left to go.</br>
+ * </br>
+ * If a and b are consecutive values on the board, a value v between them
+ * can only be in a cell c if the path can get from a to c and from c to b
+ * in time, i.e. if distance(a, c) &lt;= v - a and distance(c, b) &lt;= b - v.
+ * So within every gap, the values a cell can hold form an interval, and the
+ * domain of the cell is the union of its intervals over all the gaps. The
+ * values after the highest one on the board only have the first bound, and
+ * those before the lowest one only have the second. Placing a value splits
+ * its gap in two, which can only narrow the intervals of the cells that
+ * were in it. The domains may be wider than that, but never narrower, so
+ * whatever they rule out is ruled out for certain.</br>
+ * </br>
+ * The intervals follow from the values on the board, so they aren't kept.
+ * What is kept is how many values every empty cell can hold and their sum,
+ * and how many empty cells every missing value can go in and the sum of
+ * those cells, which is all the rules below need: a cell or value with a
+ * count of one names its only option by the sum. Placing a value updates
+ * them for the intervals of its gap, so the memory of the propagator grows
+ * with the size of the board rather than with its square.</br>
+ * </br>
+ * After every placement the domains are narrowed and two rules are applied
+ * until neither applies anymore:
+ * <ul>
+ * <li>An empty cell with a single value left must hold that value.</li>
+ * <li>A missing value with a single cell left must go in that cell.</li>
+ * </ul>
+ * A cell with no values left, or a missing value with no cells left, means
+ * the board can't be completed. Every placement that narrowed the domains,
+ * and every value placed by the rules, is recorded on a trail along with
+ * the intervals it changed, so that backtracking undoes it all at once, see
+ * {@link #mark()} and {@link #undo(int)}.
+ *
+ * @author NadavNV
+ */
+class DomainPropagator {
+    private final Board board;
+    private final BoardTopology topology;
+    // How many values the domain of every empty cell holds, and their sum
+    private final int[] domainSize;
+    private final long[] domainSum;
+    // How many empty cells every missing value can go in, and the sum of
+    // the cells
+    private final int[] cellCount;
+    private final long[] cellSum;
+    // The changes to cellCount and cellSum of the placement being made, as
+    // differences from one value to the next, between dirtyLow and dirtyHigh
+    private final int[] countDelta;
+    private final long[] sumDelta;
+    private int dirtyLow;
+    private int dirtyHigh;
+    // Whether the intervals of the gap above each value on the board, or
+    // above EMPTY_HEX for the values before the lowest one, were narrowed
+    // by its end points. The values after the highest value on the board at
+    // the last reset are left as they were when the search extends the path
+    // into them, see assign, and only have the bound of that value.
+    private final boolean[] narrowed;
+    private int highest;
+    private int highestCell;
+    // The trail, newest last. An entry is the cell of a placement that
+    // narrowed the domains, or -1 - cell for a cell that was filled by the
+    // rules, along with whether the gap it split was narrowed and where its
+    // changes start. Every entry is for a value still on the board, so
+    // there can't be more of them than cells.
+    private final int[] trailCell;
+    private final boolean[] trailNarrowed;
+    private final int[] trailChanges;
+    private int trailSize;
+    // The intervals of values that the entries of the trail added to the
+    // domains, or removed from them, newest last: the cell, or -1 - cell
+    // for a removal, and the interval. Grows as deep searches need it.
+    private int[] changeCell;
+    private int[] changeLow;
+    private int[] changeHigh;
+    private int changeCount;
+
+    public DomainPropagator(Board board) {
+        this.board = board;
+        this.topology = board.getTopology();
+        this.domainSize = new int[board.size()];
+        this.domainSum = new long[board.size()];
+        this.cellCount = new int[board.size() + 2];
+        this.cellSum = new long[board.size() + 2];
+        this.countDelta = new int[board.size() + 2];
+        this.sumDelta = new long[board.size() + 2];
+        this.dirtyLow = 1;
+        this.narrowed = new boolean[board.size() + 1];
+        this.trailCell = new int[board.size()];
+        this.trailNarrowed = new boolean[board.size()];
+        this.trailChanges = new int[board.size()];
+        this.changeCell = new int[board.size()];
+        this.changeLow = new int[board.size()];
+        this.changeHigh = new int[board.size()];
+    }
+
+    // Computes the domains of the board as it is now and forgets the trail
+    public void reset() {
+        trailSize = 0;
+        changeCount = 0;
+        highest = board.getPreviousPlacedValue(board.size() + 1);
+        highestCell = highest == Board.EMPTY_HEX ? BoardTopology.NO_CELL : board.getPosition(highest);
+        Arrays.fill(narrowed, true);
+        narrowed[highest] = false;
+        Arrays.fill(cellCount, 0);
+        Arrays.fill(cellSum, 0);
+        for (int cell = 0; cell < board.size(); cell++) {
+            domainSize[cell] = 0;
+            domainSum[cell] = 0;
+            if (board.isEmpty(cell)) {
+                addGaps(cell, Board.EMPTY_HEX, 1);
+            }
+        }
+        applyDeltas();
+    }
+
+    // The position of the trail, to undo back to
+    public int mark() {
+        return trailSize;
+    }
+
+    // The cell that the rules filled at the given position of the trail, or
+    // NO_CELL if the entry there is a placement of the search
+    public int getFilledCell(int position) {
+        int cell = trailCell[position];
+        return cell < 0 ? -1 - cell : BoardTopology.NO_CELL;
+    }
+
+    // Undoes every change made since the given mark, clearing the cells
+    // that the rules filled.
+    public void undo(int mark) {
+        while (trailSize > mark) {
+            trailSize--;
+            for (int change = changeCount - 1; change >= trailChanges[trailSize]; change--) {
+                int cell = changeCell[change];
+                if (cell < 0) {
+                    apply(-1 - cell, changeLow[change], changeHigh[change], 1);
+                } else {
+                    apply(cell, changeLow[change], changeHigh[change], -1);
+                }
+            }
+            changeCount = trailChanges[trailSize];
+            applyDeltas();
+            int cell = trailCell[trailSize];
+            boolean filled = cell < 0;
+            if (filled) {
+                cell = -1 - cell;
+            }
+            narrowed[board.getPreviousPlacedValue(board.get(cell))] = trailNarrowed[trailSize];
+            if (filled) {
+                board.clear(cell);
+            }
+        }
+    }
+
+    // Narrows the domains after a value was placed at the given cell, and
+    // then fills every cell that the rules force. Returns false if the
+    // board can't be completed, in which case the caller undoes the changes.
+    public boolean propagate(int cell) {
+        assign(cell, cell);
+        return propagate();
+    }
+
+    // Fills every cell that the rules force. Returns false if the board
+    // can't be completed, in which case the caller undoes the changes.
+    public boolean propagate() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int empty = board.getNextEmptyCell(0); empty < board.size();
+                    empty = board.getNextEmptyCell(empty + 1)) {
+                if (domainSize[empty] == 0) {
+                    return false;
+                }
+                if (domainSize[empty] == 1) {
+                    // The cells after this one see the domains that filling
+                    // it leaves, but the values are only looked at after a
+                    // pass without changes
+                    fill(empty, (int) domainSum[empty]);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                continue;
+            }
+            int hidden = Board.EMPTY_HEX;
+            for (int value = 1; value <= board.size(); value++) {
+                if (board.contains(value)) {
+                    continue;
+                }
+                if (cellCount[value] == 0) {
+                    return false;
+                }
+                if (cellCount[value] == 1 && hidden == Board.EMPTY_HEX) {
+                    hidden = value;
+                }
+            }
+            if (hidden != Board.EMPTY_HEX) {
+                fill((int) cellSum[hidden], hidden);
+                changed = true;
+            }
+        }
+        return true;
+    }
+
+    // Places a value that the rules force
+    private void fill(int cell, int value) {
+        board.place(cell, value);
+        assign(cell, -1 - cell);
+    }
+
+    // Narrows the domains after the value at the given cell was placed,
+    // which split the gap between the values on either side of it, and
+    // records it on the trail as the given entry.
+    private void assign(int cell, int entry) {
+        int value = board.get(cell);
+        int from = board.getPreviousPlacedValue(value);
+        int to = board.getNextPlacedValue(value);
+        // The changes are recorded once the entry is on the trail
+        trailCell[trailSize] = entry;
+        trailNarrowed[trailSize] = narrowed[from];
+        trailChanges[trailSize] = changeCount;
+        trailSize++;
+        // The cell can't hold any value anymore, and the domain it had is
+        // the one it had with the gap whole
+        addGaps(cell, value, -1);
+        split(cell, value, from, to);
+        // The other values after the highest one are left as they were when
+        // the value is placed among them. The search extends the path into
+        // them one value at a time, which would narrow every domain at every
+        // step, while the dead region checks already cover what that would
+        // find. Domains that are too wide only mean fewer cells are filled.
+        narrowed[from] = to != Board.EMPTY_HEX;
+        narrowed[value] = to != Board.EMPTY_HEX;
+        applyDeltas();
+    }
+
+    // Replaces the interval of every empty cell in the gap between from and
+    // to by its intervals in the two gaps that the value at the given cell
+    // splits it into. The placements on the board respect the bounds of
+    // their gaps, as the search checks that a gap can still be bridged
+    // before propagating, so the new intervals lie within the old one.
+    private void split(int cell, int value, int from, int to) {
+        boolean wasNarrowed = narrowed[from];
+        int fromCell = getCell(from);
+        int toCell = getCell(to);
+        for (int empty = board.getNextEmptyCell(0); empty < board.size();
+                empty = board.getNextEmptyCell(empty + 1)) {
+            int low = getLow(empty, from, fromCell, wasNarrowed);
+            int high = getHigh(empty, to, toCell, wasNarrowed);
+            if (low > high) {
+                continue;
+            }
+            if (to == Board.EMPTY_HEX) {
+                // Nothing is narrowed after the highest value, so the
+                // interval only loses the value itself
+                change(empty, Math.max(low, value), Math.min(high, value), -1);
+            } else if (wasNarrowed) {
+                // The new intervals are the two ends of the old one, which
+                // loses the values that are too close to the cell to be
+                // reached from it in time
+                int distance = topology.distance(cell, empty);
+                change(empty, Math.max(low, value - distance + 1), Math.min(high, value + distance - 1), -1);
+            } else {
+                change(empty, low, high, -1);
+                change(empty, getLow(empty, from, fromCell, true), getHigh(empty, value, cell, true), 1);
+                change(empty, getLow(empty, value, cell, true), getHigh(empty, to, toCell, true), 1);
+            }
+        }
+    }
+
+    // Adds the intervals of the cell in every gap to its domain, or removes
+    // them if sign is -1, as if the given value, unless it's EMPTY_HEX,
+    // weren't on the board.
+    private void addGaps(int cell, int skipped, int sign) {
+        int from = Board.EMPTY_HEX;
+        while (true) {
+            int to = board.getNextPlacedValue(from);
+            if (to != Board.EMPTY_HEX && to == skipped) {
+                to = board.getNextPlacedValue(to);
+            }
+            change(cell, getLow(cell, from, getCell(from), narrowed[from]),
+                    getHigh(cell, to, getCell(to), narrowed[from]), sign);
+            if (to == Board.EMPTY_HEX) {
+                return;
+            }
+            // Consecutive values on the board have nothing between them, so
+            // the next gap to look at starts just before the next value that
+            // is missing
+            int missing = board.getNextMissingValue(to);
+            if (skipped > to && (missing == Board.EMPTY_HEX || skipped < missing)) {
+                missing = skipped;
+            }
+            if (missing == Board.EMPTY_HEX) {
+                return;
+            }
+            from = missing - 1;
+        }
+    }
+
+    // The lowest value of the gap above from, which is at fromCell, that
+    // the cell can hold, where from may be EMPTY_HEX for the values before
+    // the lowest one on the board
+    private int getLow(int cell, int from, int fromCell, boolean isNarrowed) {
+        if (!isNarrowed) {
+            return Math.max(from + 1, highest == Board.EMPTY_HEX ? 1 :
+                    highest + topology.distance(highestCell, cell));
+        }
+        return from == Board.EMPTY_HEX ? 1 : from + topology.distance(fromCell, cell);
+    }
+
+    // The highest value of the gap below to, which is at toCell, that the
+    // cell can hold, where to may be EMPTY_HEX for the values after the
+    // highest one on the board
+    private int getHigh(int cell, int to, int toCell, boolean isNarrowed) {
+        if (to == Board.EMPTY_HEX) {
+            return board.size();
+        }
+        return isNarrowed ? to - topology.distance(cell, toCell) : to - 1;
+    }
+
+    // The cell of the given value, or NO_CELL for EMPTY_HEX
+    private int getCell(int value) {
+        return value == Board.EMPTY_HEX ? BoardTopology.NO_CELL : board.getPosition(value);
+    }
+
+    // Adds the values from low to high to the domain of the cell, or
+    // removes them if sign is -1, and records it for the newest entry of
+    // the trail, if there is one
+    private void change(int cell, int low, int high, int sign) {
+        if (low > high) {
+            return;
+        }
+        apply(cell, low, high, sign);
+        if (trailSize == 0) {
+            return;
+        }
+        if (changeCount == changeCell.length) {
+            changeCell = Arrays.copyOf(changeCell, changeCount * 2);
+            changeLow = Arrays.copyOf(changeLow, changeCount * 2);
+            changeHigh = Arrays.copyOf(changeHigh, changeCount * 2);
+        }
+        changeCell[changeCount] = sign < 0 ? -1 - cell : cell;
+        changeLow[changeCount] = low;
+        changeHigh[changeCount] = high;
+        changeCount++;
+    }
+
+    // Adds the values from low to high, which mustn't be empty, to the
+    // domain of the cell, or removes them if sign is -1
+    private void apply(int cell, int low, int high, int sign) {
+        domainSize[cell] += sign * (high - low + 1);
+        domainSum[cell] += sign * ((long) (low + high) * (high - low + 1) / 2);
+        countDelta[low] += sign;
+        countDelta[high + 1] -= sign;
+        sumDelta[low] += sign * (long) cell;
+        sumDelta[high + 1] -= sign * (long) cell;
+        if (dirtyLow > dirtyHigh) {
+            dirtyLow = low;
+            dirtyHigh = high + 1;
+        } else {
+            dirtyLow = Math.min(dirtyLow, low);
+            dirtyHigh = Math.max(dirtyHigh, high + 1);
+        }
+    }
+
+    // Adds the changes to the cells of the values that change recorded
+    private void applyDeltas() {
+        int count = 0;
+        long sum = 0;
+        for (int value = dirtyLow; value <= dirtyHigh; value++) {
+            count += countDelta[value];
+            sum += sumDelta[value];
+            countDelta[value] = 0;
+            sumDelta[value] = 0;
+            cellCount[value] += count;
+            cellSum[value] += sum;
+        }
+        dirtyLow = 1;
+        dirtyHigh = 0;
+    }
+}
@@ -1,12 +1,13 @@
-
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Given a grid of hexagonal tiles partially-filled with natural numbers,</br>
@@ -22,23 +23,37 @@ import java.util.*;
  * @author NadavNV
  */
 public class HexGridPuzzle {
-    // Used for debugging
-    private File logFile;
+    // Used for debugging. Tracing is off unless a trace is set.
     private static final String LOG_PATH = "log.txt";
-    private PrintStream logWriteStream;
-    // How many recursive steps it took to solve the puzzle. Used to compare 
-    // different solving algorithms.
-    private static int recursionSteps;
-    // The maximum absolute value a coordinate can have in any axis
-    private final int maxRadius;
-    // Default maximum radius
-    // The actual grid
-    private HashMap<CubeHex,Integer> grid;
-    // The values that haven't been placed in the grid yet
-    private SortedSet<Integer> remainingValues;
-    private static final int DEFAULT_MAX_RADIUS = 4;
+    // The argument that asks for a binary trace instead, and its default path
+    private static final String BINARY_TRACE = "binary";
+    private static final String BINARY_TRACE_PATH = "search.trace";
+    private SearchTrace trace = SearchTrace.OFF;
+    // The order in which the next solves try the cells for each value
+    private MoveOrder moveOrder = MoveOrder.NATURAL;
+    // Shuffles the cells that the move order ties for each value in the
+    // next solves, unless it's 0
+    private long seed;
+    // What the last solve of this puzzle did, e.g. how many recursive steps
+    // it took. Used to compare different solving algorithms.
+    private volatile SolveMetrics metrics;
+    // Where the solves get their contexts from, or null to set up a new
+    // context for every solve
+    private SearchContextPool contexts;
+    // Told about every placement of the next solves, or null
+    private BinaryTraceWriter recorder;
+    // The shape of the grid, shared by everything that works on it
+    private final BoardTopology topology;
+    // The actual grid, which holds the given values until a solve copies
+    // its solution here. The solves themselves work on copies of it.
+    private final Board board;
+    // The values given in the puzzle, which should never be changed
+    private final HashMap<CubeHex, Integer> initialState;
+    static final int DEFAULT_MAX_RADIUS = 4;
     // zero indicates an empty hex
-    private static int EMPTY_HEX = 0;
+    private static final int EMPTY_HEX = Board.EMPTY_HEX;
+    // The solution count when the search gave up before it was known
+    static final int UNKNOWN_COUNT = -1;
     // The initial state of the grid, as given in the puzzle by Intel
     private static final HashMap<CubeHex, Integer> DEFAULT_INITIAL_STATE;
     static {
@@ -68,87 +83,671 @@ public class HexGridPuzzle {
     }
     
     
-    // Creates an instance of this puzzle on a grid with the given radius.
-    // Will be adapted to take an initial state from the user, instead of
-    // the default state.
+    // Creates an instance of this puzzle on a grid with the given radius,
+    // starting from the default state.
     public HexGridPuzzle(int maxRadius) throws IllegalArgumentException, IOException {
-        if (maxRadius < 0) {
-            throw new IllegalArgumentException("Radius must be anunsigned integer");
-        }
-        logFile = new File(LOG_PATH);
-        logWriteStream = new PrintStream(logFile);
-        //System.err.println(maxRadius);
-        this.maxRadius = maxRadius;
-        
-        grid = new HashMap<>();
-        CubeHex root = new CubeHex(0, 0, 0);
-        grid.put(root, EMPTY_HEX);
-        addNeighbors(root);
-        remainingValues = new TreeSet<>();
-        for (int i = 1; i <= grid.size(); i++) {
-            remainingValues.add(i);
-        }
-        int value;
-        for (CubeHex hex: DEFAULT_INITIAL_STATE.keySet()) {
-            value = DEFAULT_INITIAL_STATE.get(hex);
-            remainingValues.remove(value);
-            grid.put(hex, value);
+        this(maxRadius, DEFAULT_INITIAL_STATE);
+    }
+    
+    // Creates an instance of this puzzle on a grid with the given radius,
+    // with the given values already placed.
+    public HexGridPuzzle(int maxRadius, Map<CubeHex, Integer> initialState) throws IllegalArgumentException {
+        this(new BoardTopology(maxRadius), initialState);
+    }
+    
+    // Creates an instance of this puzzle on a grid of any shape, with the
+    // given values already placed.
+    public HexGridPuzzle(BoardTopology topology, Map<CubeHex, Integer> initialState) throws IllegalArgumentException {
+        this.topology = topology;
+        board = new Board(topology);
+        if (initialState.isEmpty()) {
+            throw new IllegalArgumentException("At least one value must be given");
+        }
+        for (Map.Entry<CubeHex, Integer> entry: initialState.entrySet()) {
+            int cell = topology.indexOf(entry.getKey());
+            int value = entry.getValue();
+            if (cell == BoardTopology.NO_CELL) {
+                throw new IllegalArgumentException(entry.getKey() + " is not on the grid");
+            }
+            if (value < 1 || value > board.size() || board.contains(value)) {
+                throw new IllegalArgumentException("Invalid or repeated value: " + value);
+            }
+            board.place(cell, value);
         }
+        this.initialState = new HashMap<>(initialState);
         // printGrid();
         
     }
     
+    // Creates an instance of this puzzle with the values of the given board
+    // already placed. The board is copied, so solving doesn't change it.
+    HexGridPuzzle(Board initialState) throws IllegalArgumentException {
+        topology = initialState.getTopology();
+        board = new Board(initialState);
+        if (board.getNextPlacedValue(EMPTY_HEX) == EMPTY_HEX) {
+            throw new IllegalArgumentException("At least one value must be given");
+        }
+        this.initialState = new HashMap<>();
+        for (int cell = 0; cell < board.size(); cell++) {
+            if (!board.isEmpty(cell)) {
+                this.initialState.put(topology.getHex(cell), board.get(cell));
+            }
+        }
+    }
+    
+    // Sets where the steps of the next solves are recorded. The caller
+    // remains responsible for closing the trace.
+    public void setTrace(SearchTrace trace) {
+        this.trace = trace;
+    }
+    
+    // Records every placement the next solves make on the grid to the given
+    // binary trace, or stops recording if it's null. Counting solutions
+    // works on a copy of the grid and isn't recorded.
+    public void setRecorder(BinaryTraceWriter recorder) {
+        this.recorder = recorder;
+    }
+    
+    // Takes the contexts of the next solves from the given pool, which
+    // saves setting one up for every solve when many puzzles of the same
+    // shape are solved, or sets up a new one every time if it's null.
+    public void setContextPool(SearchContextPool contexts) {
+        this.contexts = contexts;
+    }
+    
+    SearchContextPool getContextPool() {
+        return contexts;
+    }
+    
+    // Sets the order in which the next solves try the cells for each value
+    public void setMoveOrder(MoveOrder moveOrder) {
+        this.moveOrder = moveOrder;
+    }
+    
+    // Sets the seed with which the next solves shuffle the cells that the
+    // move order ties for each value, or keeps them in order if it's 0.
+    // Solves with different seeds explore the same tree in different orders.
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+    
+    private void printGrid(PrintStream output) {
+        output.print(gridToString(board));
+    }
+    
+    // Writes a step of the search to the trace, followed by the resulting grid
+    private static void traceStep(SearchTrace trace, Board board, String message) {
+        trace.write(message + System.lineSeparator() + gridToString(board));
+    }
+    
     // Currently supports the case where numbers are at most 2 digits.
     // Will be adapted to support longer numbers.
-    private void printGrid(PrintStream output) {
-        SortedSet<CubeHex> hexes = new TreeSet<>(grid.keySet());
+    static String gridToString(Board board) {
+        BoardTopology topology = board.getTopology();
+        StringBuilder builder = new StringBuilder();
+        Formatter output = new Formatter(builder);
         String separator = "  ";
-        // How many nodes to print in the current line
-        int nodesToPrint = maxRadius + 1;
-        // How much whitespace to leave before the first node
-        int spaces = maxRadius;
-        // print lines up to the middle line
-        Iterator<CubeHex> it = hexes.iterator();
-        for (; nodesToPrint < 2*maxRadius+1; nodesToPrint++, spaces--) {
-            for (int i = 0; i < spaces; i++) {
-                output.print(separator);
-            }
-            output.format("%2d", grid.get(it.next()));
-            for (int i = 1; i < nodesToPrint; i++) {
-                output.format(separator + "%2d", grid.get(it.next()));
-            }
-            output.println();
+        // Every row is shifted half a hex from the one above it, so a hex is
+        // printed 2x + z half hexes from the left, each half as wide as the
+        // separator. Cells are indexed in printing order, so we simply print
+        // them one after the other, leaving room for the holes.
+        int left = Integer.MAX_VALUE;
+        for (int cell = 0; cell < board.size(); cell++) {
+            CubeHex hex = topology.getHex(cell);
+            left = Math.min(left, 2 * hex.getX() + hex.getZ());
         }
-        // print remaining lines
-        for (; nodesToPrint >= maxRadius+1; nodesToPrint--, spaces++) {
-            for (int i = 0; i < spaces; i++) {
-                output.print(separator);
+        int row = topology.getHex(0).getZ();
+        // Where the next hex would be printed without any space before it
+        int column = left;
+        for (int cell = 0; cell < board.size(); cell++) {
+            CubeHex hex = topology.getHex(cell);
+            if (hex.getZ() != row) {
+                for (; row < hex.getZ(); row++) {
+                    output.format("%n");
+                }
+                column = left;
             }
-            output.format("%2d", grid.get(it.next()));
-            for (int i = 1; i < nodesToPrint; i++) {
-                output.format(separator + "%2d", grid.get(it.next()));
+            int position = 2 * hex.getX() + hex.getZ();
+            for (; column < position; column++) {
+                builder.append(separator);
             }
-            output.println();
+            output.format("%2d", board.get(cell));
+            column++;
         }
-        output.println();
+        output.format("%n%n");
+        return builder.toString();
     }
     
-    // Finds the coordinate in the grid of the given value.
-    // The inverse of searching the map by key. Returns null
-    // if the value doesn't exist on the grid.
-    private CubeHex getPosition(int value) throws IllegalArgumentException {
-        // System.err.println("Finding position of " + value);
-        for (Map.Entry<CubeHex, Integer> entry: grid.entrySet()) {
-            if (value == entry.getValue()) {
-                // System.err.println("Position is " + entry.getKey());
-                return entry.getKey();
+    /*
+     * What the solvers have in common: the context they work in, the
+     * pruning they share, and the two ways of running them. Everything the
+     * search changes, from the board to the stack, is kept in a
+     * SearchContext rather than in the solver or the puzzle, so a solver is
+     * cheap to create, and any number of solves can run at once in contexts
+     * of their own. Solving stops at the
+     * first solution and leaves it on the board. Counting goes on until
+     * limit solutions are found, and puts the board back the way it was.
+     * While counting, the number of solutions of every subproblem that was
+     * searched to the end is remembered, as the same subproblem is often
+     * reached by filling the same cells in a different order. In both modes,
+     * subproblems that turned out to have no solution at all are kept in a
+     * transposition table, which is smaller and cheaper to look up, and can
+     * be shared by the solvers of a parallel search.
+     *
+     * The search places one value per level, which on a large grid is far
+     * deeper than the Java stack allows, so rather than recursing it keeps
+     * its own stack of frames, one per value being placed. Each frame holds
+     * the value, the cell it's currently placed in, and the cells next to
+     * its predecessor that it may be placed in, in the order of the puzzle's
+     * MoveOrder. The frames are plain arrays allocated along with the
+     * context, so the search itself allocates nothing. The solvers differ
+     * only in which placements they allow, see findTarget.
+     */
+    private abstract static class SearchSolver implements Solver {
+        // How many subproblems are remembered while counting, at most
+        private static final int MAX_REMEMBERED_SUBPROBLEMS = 1 << 20;
+        // How many nodes are searched between looks at the clock. A power
+        // of two. Propagation makes a node cost far more than reading the
+        // clock, so this can be small.
+        private static final int DEADLINE_CHECK_INTERVAL = 1 << 6;
+        
+        // Where everything this solver changes is kept. The fields below
+        // are the parts of it, for short.
+        protected final SearchContext context;
+        protected final BoardTopology topology;
+        protected final Board board;
+        // Set once the search should stop, e.g. when another solver
+        // working on the same puzzle has already found a solution.
+        private final AtomicBoolean cancelled;
+        private final DeadRegionPruner pruner;
+        protected final ClueGapPropagator gaps;
+        // The values each empty cell can still hold, which fills the cells
+        // that can only hold one value, and the values that only have one
+        // cell to go in
+        private final DomainPropagator domains;
+        // The subproblems known to have no solution
+        private final TranspositionTable failed;
+        // The order in which the cells for each value are tried, and what
+        // shuffles the cells it ties, or null if they stay in order
+        private final MoveOrder order;
+        private final SplittableRandom random;
+        protected final SearchTrace trace;
+        // What this solver has done so far
+        protected final SolveMetrics metrics;
+        // Whether this solver is counting solutions rather than solving
+        private boolean counting;
+        // The solutions found so far, and how many to stop at
+        private int solutions;
+        private int limit;
+        // How many subproblems were searched, and how many may be before
+        // giving up
+        private long nodes;
+        private long nodeLimit = Long.MAX_VALUE;
+        // The System.nanoTime() by which to give up, checked every
+        // DEADLINE_CHECK_INTERVAL nodes, and whether it has passed
+        private long deadline;
+        private boolean hasDeadline;
+        private boolean timedOut;
+        // Work done outside of the nodes, such as listing the paths of a
+        // gap, which looks at the deadline as often but isn't limited
+        private long steps;
+        // The solution counts of finished subproblems, used while counting
+        private final HashMap<SearchContext.Subproblem, Integer> subproblems;
+        // Reused to look subproblems up without allocating
+        private final SearchContext.Subproblem probe;
+        
+        // The search stack. Frame i places frameValue[i], the predecessor of
+        // which is in frameParent[i]. The value is currently in frameCell[i],
+        // or nowhere if that's NO_CELL. The cells it may be placed in are
+        // the frameCandidateCount[i] cells of frameCandidates starting at
+        // i * DIRECTION_COUNT, of which frameNextCandidate[i] were tried.
+        private final int[] frameValue;
+        private final int[] frameParent;
+        private final int[] frameCell;
+        private final int[] frameCandidates;
+        private final int[] frameCandidateCount;
+        private final int[] frameNextCandidate;
+        // The sort keys of the candidates of the frame being pushed
+        private final int[] candidateKeys;
+        // The hash of the state the frame started from, and how many
+        // solutions had been found by then
+        private final long[] frameHash;
+        private final int[] frameSolutionsBefore;
+        // The position of the domains' trail before the frame's value was
+        // placed, so that the cells it forced are cleared along with it
+        private final int[] frameTrail;
+        // Whether the search should stop, when a frame is resolved as soon
+        // as it's pushed rather than by searching it
+        private boolean resolved;
+        
+        protected SearchSolver(SearchContext context, AtomicBoolean cancelled) {
+            this.context = context;
+            this.topology = context.getTopology();
+            this.board = context.getBoard();
+            this.cancelled = cancelled;
+            this.failed = context.getFailed();
+            this.order = context.getMoveOrder();
+            this.random = context.getRandom();
+            this.trace = context.getTrace();
+            this.pruner = context.getPruner();
+            this.gaps = context.getGaps();
+            this.domains = context.getDomains();
+            this.subproblems = context.subproblems;
+            this.probe = context.probe;
+            this.metrics = new SolveMetrics(getName(), board.size());
+            frameValue = context.frameValue;
+            frameParent = context.frameParent;
+            frameCell = context.frameCell;
+            frameCandidates = context.frameCandidates;
+            frameCandidateCount = context.frameCandidateCount;
+            frameNextCandidate = context.frameNextCandidate;
+            candidateKeys = context.candidateKeys;
+            frameHash = context.frameHash;
+            frameSolutionsBefore = context.frameSolutionsBefore;
+            frameTrail = context.frameTrail;
+        }
+        
+        @Override
+        public SearchContext getContext() {
+            return context;
+        }
+        
+        @Override
+        public SolveMetrics getMetrics() {
+            return metrics;
+        }
+        
+        @Override
+        public boolean solve(int currentValue) {
+            counting = false;
+            solutions = 0;
+            limit = 1;
+            if (start(currentValue) && !isAborted()) {
+                return true;
+            }
+            domains.undo(0);
+            return false;
+        }
+        
+        @Override
+        public int countSolutions(int currentValue, int limit) {
+            counting = true;
+            solutions = 0;
+            this.limit = limit;
+            subproblems.clear();
+            start(currentValue);
+            domains.undo(0);
+            subproblems.clear();
+            return isAborted() ? UNKNOWN_COUNT : Math.min(solutions, limit);
+        }
+        
+        // Gives up once the given number of subproblems have been searched,
+        // counting from now.
+        public void setNodeLimit(long nodeLimit) {
+            this.nodeLimit = nodeLimit;
+            nodes = 0;
+        }
+        
+        // Gives up once the given System.nanoTime() has passed.
+        public void setDeadline(long deadline) {
+            this.deadline = deadline;
+            hasDeadline = true;
+            timedOut = false;
+        }
+        
+        // Whether the search gave up because it ran out of nodes or time
+        public boolean isTimedOut() {
+            return timedOut || nodes > nodeLimit;
+        }
+        
+        protected boolean isAborted() {
+            return cancelled.get() || isTimedOut();
+        }
+        
+        // Counts a node searched outside of the search stack, towards the
+        // node limit and the deadline.
+        protected void countNode() {
+            nodes++;
+            checkDeadline();
+        }
+        
+        // Counts a step of work that isn't a node, towards the deadline only,
+        // so that the node limit means the same whatever else is done.
+        protected void countStep() {
+            if (hasDeadline && (++steps & (DEADLINE_CHECK_INTERVAL - 1)) == 0 &&
+                    System.nanoTime() - deadline >= 0) {
+                timedOut = true;
+            }
+        }
+        
+        // Sets timedOut once the deadline has passed, looking at the clock
+        // every DEADLINE_CHECK_INTERVAL nodes.
+        private void checkDeadline() {
+            if (hasDeadline && (nodes & (DEADLINE_CHECK_INTERVAL - 1)) == 0 &&
+                    System.nanoTime() - deadline >= 0) {
+                timedOut = true;
+            }
+        }
+        
+        // The value currentValue has to reach in time, which restricts its
+        // cells to those close enough to it, or EMPTY_HEX to only require
+        // currentValue to be next to its successor if that's placed.
+        protected abstract int findTarget(int currentValue);
+        
+        // Fills the cells that the values on the board already force, and
+        // then searches from the lowest value that is still missing. Returns
+        // whether the search should stop, as search does.
+        private boolean start(int currentValue) {
+            if (isAborted()) {
+                // The search gave up on an earlier start, and gives up on
+                // the rest without setting them up
+                return true;
+            }
+            domains.reset();
+            if (!domains.propagate()) {
+                metrics.prune(SolveMetrics.Rule.DOMAIN);
+                return false;
+            }
+            if (board.hasBrokenLinks()) {
+                metrics.prune(SolveMetrics.Rule.ADJACENCY);
+                return false;
+            }
+            if (board.isFull()) {
+                return board.isSolved() && ++solutions >= limit;
+            }
+            return search(board.getNextMissingValue(currentValue - 1));
+        }
+        
+        // Places currentValue, whose predecessor is already on the board,
+        // and everything after it. Returns whether the search should stop,
+        // in which case a solution that was found is left on the board.
+        private boolean search(int currentValue) {
+            int top = 0;
+            // Whether the top frame just finished searching the placement in
+            // its current cell, and whether that search said to stop
+            boolean returning;
+            boolean stop = false;
+            if (push(top, currentValue)) {
+                returning = false;
+            } else {
+                stop = resolved;
+                top--;
+                returning = true;
+            }
+            while (top >= 0) {
+                if (returning) {
+                    int cell = frameCell[top];
+                    if (stop && !counting && !isAborted()) {
+                        // Found a solution, so we cascade it down the stack.
+                        top = pop(top, true);
+                        continue;
+                    }
+                    // undo previous step before checking the next neighbor,
+                    // along with the cells it forced.
+                    domains.undo(frameTrail[top]);
+                    board.clear(cell);
+                    frameCell[top] = BoardTopology.NO_CELL;
+                    metrics.backtrack(frameValue[top]);
+                    if (trace.steps) {
+                        traceStep(trace, board, "Could not place " + frameValue[top] + " at " + topology.getHex(cell));
+                    }
+                    if (stop) {
+                        top = pop(top, true);
+                        continue;
+                    }
+                }
+                int candidate = nextCandidate(top);
+                if (candidate == BoardTopology.NO_CELL) {
+                    // Couldn't place the value in any viable neighbor
+                    stop = false;
+                    top = pop(top, false);
+                    returning = true;
+                    continue;
+                }
+                int value = frameValue[top];
+                // Nodes that are part of the initial problem
+                // declaration should not be changed
+                assert board.isEmpty(candidate);
+                board.place(candidate, value);
+                frameCell[top] = candidate;
+                frameTrail[top] = domains.mark();
+                if (trace.steps) {
+                    traceStep(trace, board, "Placing " + value + " at " + topology.getHex(candidate));
+                }
+                returning = true;
+                if (board.isFull()) {
+                    /*
+                     * No more values to place, so we check if the current
+                     * grid represents a good solution.
+                     */
+                    stop = board.isSolved() && ++solutions >= limit;
+                } else if (pruner.isDead(candidate)) {
+                    // Skip placements that cut off empty cells
+                    metrics.prune(SolveMetrics.Rule.DEAD_REGION);
+                    stop = false;
+                } else if (!gaps.isFeasibleAfter(candidate)) {
+                    // or that leave a gap that can't be bridged
+                    metrics.prune(SolveMetrics.Rule.CLUE_GAP);
+                    stop = false;
+                } else if (!domains.propagate(candidate)) {
+                    // or that leave a cell or a value with nowhere to go
+                    metrics.prune(SolveMetrics.Rule.DOMAIN);
+                    stop = false;
+                } else if (!checkFilled(frameTrail[top])) {
+                    // or that force values into cells that fail the checks
+                    // above
+                    stop = false;
+                } else if (board.isFull()) {
+                    // The placement forced the rest of the grid
+                    stop = board.isSolved() && ++solutions >= limit;
+                } else if (push(top + 1, board.getNextMissingValue(value))) {
+                    // Attempt to place the next value
+                    top++;
+                    returning = false;
+                } else {
+                    stop = resolved;
+                }
+            }
+            return stop;
+        }
+        
+        // Whether the cells that the domains filled since the given mark of
+        // their trail pass the same checks as the placements of the search
+        private boolean checkFilled(int mark) {
+            // The candidates are already next to the value after them, but
+            // the filled cells might not be
+            if (board.hasBrokenLinks()) {
+                metrics.prune(SolveMetrics.Rule.ADJACENCY);
+                return false;
+            }
+            for (int position = mark; position < domains.mark(); position++) {
+                int cell = domains.getFilledCell(position);
+                if (cell == BoardTopology.NO_CELL) {
+                    continue;
+                }
+                if (pruner.isDead(cell)) {
+                    metrics.prune(SolveMetrics.Rule.DEAD_REGION);
+                    return false;
+                }
+                if (!gaps.isFeasibleAfter(cell)) {
+                    metrics.prune(SolveMetrics.Rule.CLUE_GAP);
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        // Sets up frame top to place the given value. Returns false if the
+        // value doesn't need to be searched, with whether the search should
+        // stop in resolved.
+        private boolean push(int top, int value) {
+            nodes++;
+            checkDeadline();
+            if (isAborted()) {
+                resolved = true;
+                return false;
+            }
+            long hash = board.getStateHash(value);
+            if (failed.contains(hash)) {
+                metrics.prune(SolveMetrics.Rule.TRANSPOSITION);
+                resolved = false;
+                return false;
+            }
+            metrics.tableMiss();
+            if (counting) {
+                probe.set(board, value);
+                Integer known = subproblems.get(probe);
+                if (known != null) {
+                    solutions += known;
+                    resolved = solutions >= limit;
+                    return false;
+                }
             }
-            // System.err.println("Position is NOT " + entry.getKey());
+            int parent = board.getPosition(value - 1);
+            frameValue[top] = value;
+            frameParent[top] = parent;
+            frameCell[top] = BoardTopology.NO_CELL;
+            listCandidates(top, findTarget(value));
+            frameHash[top] = hash;
+            frameSolutionsBefore[top] = solutions;
+            metrics.node(value);
+            return true;
+        }
+        
+        // Finishes frame top, remembering how it went, and returns the new
+        // top of the stack.
+        private int pop(int top, boolean stopped) {
+            if (!stopped && !isAborted()) {
+                int found = solutions - frameSolutionsBefore[top];
+                // A subproblem that was cut short doesn't have a final count
+                if (counting && subproblems.size() < MAX_REMEMBERED_SUBPROBLEMS) {
+                    probe.set(board, frameValue[top]);
+                    subproblems.put(new SearchContext.Subproblem(probe), found);
+                }
+                if (found == 0) {
+                    failed.add(frameHash[top], frameValue[top]);
+                }
+            }
+            return top - 1;
+        }
+        
+        // Lists the empty neighbors of the parent of frame top that its
+        // value may be placed in, in the order they should be tried.
+        private void listCandidates(int top, int targetValue) {
+            int parent = frameParent[top];
+            int value = frameValue[top];
+            int first = top * CubeHex.DIRECTION_COUNT;
+            int count = 0;
+            // The cell that has to take the value, if any, and how many
+            // cells do
+            int forced = BoardTopology.NO_CELL;
+            int forcedCount = 0;
+            for (int word = topology.getFirstNeighborWord(parent); word <= topology.getLastNeighborWord(parent); word++) {
+                for (long empty = board.getEmptyNeighbors(parent, word); empty != 0; empty &= empty - 1) {
+                    int candidate = (word << 6) + Long.numberOfTrailingZeros(empty);
+                    if (order == MoveOrder.FORCED && isForced(candidate)) {
+                        forced = candidate;
+                        forcedCount++;
+                    }
+                    if (targetValue != EMPTY_HEX) {
+                        // If the distance is larger then we can't reach
+                        // target in time.
+                        if (topology.distance(candidate, board.getPosition(targetValue)) > targetValue - value) {
+                            metrics.prune(SolveMetrics.Rule.DISTANCE);
+                            continue;
+                        }
+                    } else if (board.contains(value + 1) && !board.isAdjacentTo(candidate, value + 1)) {
+                        // If the next value is already placed, then the current value must be
+                        // placed next to it.
+                        metrics.prune(SolveMetrics.Rule.ADJACENCY);
+                        continue;
+                    }
+                    candidateKeys[count] = getSortKey(candidate, targetValue);
+                    frameCandidates[first + count++] = candidate;
+                }
+            }
+            if (random != null) {
+                // The sort below keeps cells with the same key in this order
+                for (int i = count - 1; i > 0; i--) {
+                    int j = random.nextInt(i + 1);
+                    int key = candidateKeys[i];
+                    int candidate = frameCandidates[first + i];
+                    candidateKeys[i] = candidateKeys[j];
+                    frameCandidates[first + i] = frameCandidates[first + j];
+                    candidateKeys[j] = key;
+                    frameCandidates[first + j] = candidate;
+                }
+            }
+            if (forcedCount > 0) {
+                // Every other cell would leave the forced one stranded, and
+                // two forced cells can't both take the value.
+                int kept = 0;
+                for (int i = 0; i < count; i++) {
+                    if (frameCandidates[first + i] == forced && forcedCount == 1) {
+                        frameCandidates[first + kept++] = forced;
+                    }
+                }
+                for (int i = kept; i < count; i++) {
+                    metrics.prune(SolveMetrics.Rule.FORCED);
+                }
+                count = kept;
+            } else if (order != MoveOrder.NATURAL) {
+                // Insertion sort, as there are at most six candidates, and
+                // it keeps cells with the same key in order.
+                for (int i = 1; i < count; i++) {
+                    int key = candidateKeys[i];
+                    int candidate = frameCandidates[first + i];
+                    int j = i - 1;
+                    for (; j >= 0 && candidateKeys[j] > key; j--) {
+                        candidateKeys[j + 1] = candidateKeys[j];
+                        frameCandidates[first + j + 1] = frameCandidates[first + j];
+                    }
+                    candidateKeys[j + 1] = key;
+                    frameCandidates[first + j + 1] = candidate;
+                }
+            }
+            frameCandidateCount[top] = count;
+            frameNextCandidate[top] = 0;
+        }
+        
+        // Whether the given empty cell next to the head of the path has no
+        // other way into the path, so the next value has to go there. It
+        // needs two connections besides the head, or one if it can still be
+        // the last value.
+        private boolean isForced(int cell) {
+            int needed = board.contains(board.size()) ? 2 : 1;
+            // The head is an open value next to the cell, and the only one
+            // that goes away when the next value is placed elsewhere.
+            return pruner.countConnections(cell, needed + 1) - 1 < needed;
+        }
+        
+        // Smaller keys are tried first
+        private int getSortKey(int candidate, int targetValue) {
+            int distance = targetValue == EMPTY_HEX ? 0 :
+                    topology.distance(candidate, board.getPosition(targetValue));
+            switch (order) {
+                case DISTANCE:
+                    return distance;
+                case WARNSDORFF:
+                case FORCED:
+                    // Fewest onward cells first, the closest to the target
+                    // among those
+                    return board.countEmptyNeighbors(candidate) * board.size() + distance;
+                default:
+                    return 0;
+            }
+        }
+        
+        // The next cell that the value of frame top may be placed in, or
+        // NO_CELL if there are none left.
+        private int nextCandidate(int top) {
+            if (frameNextCandidate[top] == frameCandidateCount[top]) {
+                return BoardTopology.NO_CELL;
+            }
+            return frameCandidates[top * CubeHex.DIRECTION_COUNT + frameNextCandidate[top]++];
         }
-        return null;
     }
     
-    
     /*
      * Finding a solution to this puzzle is equivalent to finding a path
      * that covers the whole grid and does not repeat itself. 
@@ -156,10 +755,15 @@ public class HexGridPuzzle {
      * between the numbers that are already on the grid, trying to find the
      * shortest path each time.
      */
-    private class PathSolver implements Solver {
+    private static class PathSolver extends SearchSolver {
         private static final String NAME = "Pathfinding";
+        
+        public PathSolver(SearchContext context, AtomicBoolean cancelled) {
+            super(context, cancelled);
+        }
+        
         @Override
-        public boolean solve(int currentValue) {
+        protected int findTarget(int currentValue) {
             /*
             Find next remaining value
             Find its parent
@@ -168,53 +772,12 @@ public class HexGridPuzzle {
             If no such value exists, try each of the parent's neighbors in DFS
             Finally check validity of solution
             */
-//            logWriteStream.println("Path solving for " + currentValue);
-            CubeHex parent = getPosition(currentValue - 1);
-//            logWriteStream.println("Parent " + (currentValue - 1) +
-//                    " is at " + parent);
-            CubeHex target = null;
-            for (int value : new TreeSet<>(grid.values())) {
-                if (value > currentValue) {
-                    target = getPosition(value);
-                    break;
-                }
-            }
-            if (target == null) {
-                logWriteStream.println("Going DFS");
+            int targetValue = board.getNextPlacedValue(currentValue);
+            if (targetValue == EMPTY_HEX && trace.steps) {
                 // No higher values exist, so we switch to a simple DFS solution
-                DFSSolver solver = new DFSSolver();
-                return solver.solve(currentValue);
-            }
-//            logWriteStream.println("Target " + grid.get(target) + " is at " + target);
-            recursionSteps++;
-            // Try possible nodes according to how close they are to the target.
-            ArrayList<CubeHex> candidates = new ArrayList<>();
-            candidates.sort(new CubeHex.DistanceComparator(target));
-            candidates.addAll(getEmptyNeighbors(parent));
-            for (CubeHex candidate: candidates) {
-                // If the distance is larger then we can't reach
-                // target in time.
-                if (candidate.distanceTo(target) <=
-                        grid.get(target) - currentValue) {
-                    logWriteStream.println("Placing " + currentValue + " at " + candidate);
-                    remainingValues.remove(currentValue);
-                    grid.put(candidate, currentValue);
-                    printGrid(logWriteStream);
-                    if (remainingValues.isEmpty()) {
-                        return checkSolution();
-                    } else if (solve(Collections.min(remainingValues))) {
-                        return true;
-                    } else {
-                        // Undo previous step
-                        logWriteStream.println("Could not place " + currentValue + " at " + candidate);
-                        grid.put(candidate, EMPTY_HEX);
-                        remainingValues.add(currentValue);
-                        printGrid(logWriteStream);
-                    }
-                }
+                trace.write("Going DFS");
             }
-            
-            return false;
+            return targetValue;
         }
 
         @Override
@@ -225,261 +788,1095 @@ public class HexGridPuzzle {
     
     
     
+    // The lowest value on the given board. 
+    private static int getLowestPlacedValue(Board board) {
+        return board.getNextPlacedValue(EMPTY_HEX);
+    }
+    
+    // The cells where 1 may be placed, in the order they should be tried.
+    // Only used when 1 isn't already on the grid.
+    private ArrayList<Integer> getStartCandidates(Board board) {
+        int lowestPlacedValue = getLowestPlacedValue(board);
+        int target = board.getPosition(lowestPlacedValue);
+        // Attempt to start from all the hexes that are at most 
+        // lowerPlacedValue distance from the next placed value. If the 
+        // distance is greater than that then the path will never reach
+        // that value in time.
+        ArrayList<Integer> candidates = getNodesWithinDistance(target, lowestPlacedValue-1);
+        candidates.removeIf(cell -> !board.isEmpty(cell));
+        // As the smallest number initially on the board is higher,
+        // even if it's as low as 5, randomly trying to place the initial
+        // causes the solution to be very slow, even when using the faster
+        // solvers. Merely sorting the possible starting points by their
+        // distance from the smallest value on the board reduces running
+        // time considerably.
+        candidates.sort(Comparator.comparingInt(cell -> topology.distance(cell, target)));
+        return candidates;
+    }
+    
     // In the case that 1 isn't already on the grid, we need to attempt to
-    // place it, and then attemp to solve from there.
+    // place it, and then attemp to solve from there. Works on the board of
+    // the solver's context, and leaves the solution there.
     private boolean initializeSolution(Solver solver) {
-        recursionSteps = 0;
-        HashSet<Integer> placedValues = new HashSet<>(grid.values());
-        placedValues.remove(EMPTY_HEX);
-        int lowestPlacedValue = Collections.min(placedValues);
+        SolveMetrics solveMetrics = solver.getMetrics();
+        solveMetrics.start();
+        boolean solved = startSolution(solver, solver.getContext().getBoard());
+        solveMetrics.finish(solved);
+        metrics = solveMetrics;
+        return solved;
+    }
+    
+    private boolean startSolution(Solver solver, Board board) {
+        if (!solver.getContext().getGaps().isFeasible()) {
+            if (trace.summary) {
+                trace.write("The given values leave a gap that can't be bridged.");
+            }
+            return false;
+        }
+        int lowestPlacedValue = getLowestPlacedValue(board);
         if (lowestPlacedValue != 1) {
-            logWriteStream.println("Lowest placed value is: " + lowestPlacedValue);
-            CubeHex target = getPosition(lowestPlacedValue);
-            // Attempt to start from all the hexes that are at most 
-            // lowerPlacedValue distance from the next placed value. If the 
-            // distance is greater than that then the path will never reach
-            // that value in time.
-            ArrayList<CubeHex> candidates = new ArrayList<>(getNodesWithinDistance(target, lowestPlacedValue-1));
-            // As the smallest number initially on the board is higher,
-            // even if it's as low as 5, randomly trying to place the initial
-            // causes the solution to be very slow, even when using the faster
-            // solvers. Merely sorting the possible starting points by their
-            // distance from the smallest value on the board reduces running
-            // time considerably.
-            candidates.sort(new CubeHex.DistanceComparator(target));
-            logWriteStream.println("Candidates for starting position:");
-            logWriteStream.println(candidates);
-            for (CubeHex candidate : candidates) {
-                if (grid.get(candidate) == EMPTY_HEX) {
-                    // Attempt to place 1 at this position
-                    logWriteStream.println("Placing 1 at " + candidate);
-                    remainingValues.remove(1);
-                    grid.put(candidate, 1);
-                    printGrid(logWriteStream);
-                    if (solver.solve(Collections.min(remainingValues))) {
-                        return true;
-                    } else {
-                        // Undo previous step
-                        logWriteStream.println("Could not place 1 at " + candidate);
-                        grid.put(candidate, EMPTY_HEX);
-                        remainingValues.add(1);
-                        printGrid(logWriteStream);
+            if (trace.summary) {
+                trace.write("Lowest placed value is: " + lowestPlacedValue);
+            }
+            ArrayList<Integer> candidates = getStartCandidates(board);
+            if (trace.summary) {
+                trace.write("Candidates for starting position:");
+                trace.write(candidates.toString());
+            }
+            for (int candidate : candidates) {
+                // Attempt to place 1 at this position
+                board.place(candidate, 1);
+                if (trace.steps) {
+                    traceStep(trace, board, "Placing 1 at " + topology.getHex(candidate));
+                }
+                if (solver.solve(board.getNextMissingValue(1))) {
+                    return true;
+                } else {
+                    // Undo previous step
+                    board.clear(candidate);
+                    if (trace.steps) {
+                        traceStep(trace, board, "Could not place 1 at " + topology.getHex(candidate));
                     }
                 }
             }
-            logWriteStream.println("Could not solve from any starting position.");
+            if (trace.summary) {
+                trace.write("Could not solve from any starting position.");
+            }
             return false;
         } else {
-            return solver.solve(Collections.min(remainingValues));
+            return solver.solve(board.getNextMissingValue(1));
         }
     }
     
     // Find all nodes within a certain distance from the given node (exclusing
     // the node itself). Assuming distance is greater than zero.
-    private HashSet<CubeHex> getNodesWithinDistance(CubeHex root, int distance) {
-        HashSet<CubeHex> alreadyChecked = new HashSet<>();
-        alreadyChecked.add(root);
-        HashSet<CubeHex> result = new HashSet<>();
-        HashSet<CubeHex> toCheck = new HashSet<>();
-        toCheck.addAll(root.getNeighbors());
-        while (!toCheck.isEmpty()) {
-            HashSet<CubeHex> toCheckClone = new HashSet<>(toCheck);
-            for (CubeHex hex: toCheckClone) {
-                alreadyChecked.add(hex);
-                toCheck.remove(hex);
-                if (grid.containsKey(hex)) {
-                    if (hex.distanceTo(root) <= distance) {
-                        result.add(hex);
-                    }
-                    if (hex.distanceTo(root) < distance) {
-                        HashSet<CubeHex> neighbors = hex.getNeighbors();
-                        neighbors.removeAll(alreadyChecked);
-                        toCheck.addAll(neighbors);
-                    }
-                }
+    private ArrayList<Integer> getNodesWithinDistance(int root, int distance) {
+        ArrayList<Integer> result = new ArrayList<>();
+        for (int cell = 0; cell < topology.size(); cell++) {
+            if (cell != root && topology.distance(cell, root) <= distance) {
+                result.add(cell);
             }
-        } 
+        }
         return result;
     }
     
-    private class DFSSolver implements Solver {
+    private static class DFSSolver extends SearchSolver {
         private static final String NAME = "DFS";
+        
+        public DFSSolver(SearchContext context, AtomicBoolean cancelled) {
+            super(context, cancelled);
+        }
+        
         @Override
-        public boolean solve(int currentValue) {
+        protected int findTarget(int currentValue) {
             /*
             Find next remaining value
             Find its parent
             Try to place in each of the parent's neightbors via DFS
             Finally check validity of solution
             */
+            return EMPTY_HEX;
+        }
+
+        @Override
+        public String getName() {
+            return NAME;
+        }
+    }
+    
+    // A run of missing values between two placed ones, and the paths of
+    // empty cells that could hold them
+    private static class Gap {
+        // The placed values at either end
+        private final int from;
+        private final int to;
+        // The cells of every path, in order from from + 1 to to - 1
+        private final ArrayList<int[]> paths = new ArrayList<>();
+        
+        public Gap(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+        
+        public int length() {
+            return to - from - 1;
+        }
+    }
+    
+    /*
+     * Bridges the gaps between the values on the grid one gap at a time,
+     * rather than one value at a time.
+     *
+     * The paths of empty cells that could hold each short gap are listed up
+     * front. Gaps whose paths share cells depend on each other, and are
+     * grouped into components. A component that nothing else on the grid can
+     * reach, i.e. none of the cells of its paths are within reach of a gap
+     * that is too long to list or of the values after the highest one on
+     * the grid, is independent of the rest: it must cover exactly the cells
+     * of its paths, whichever paths it uses. So every independent component
+     * is solved on its own, its solution is kept no matter how the rest of
+     * the grid goes, and the number of solutions of the grid is the product
+     * of the numbers of solutions of its parts. Heavily clued grids are
+     * mostly made of small independent components.
+     *
+     * Choosing one path for every gap of a component so that no two paths
+     * share a cell and every cell is covered is an exact cover problem, with
+     * the gaps and the cells as the columns. It is solved by always trying
+     * the gap with the fewest paths that still fit next, which settles the
+     * most constrained parts first, and a cell that no remaining path can
+     * cover ends the branch early. Whatever isn't independent is left to the
+     * pathfinding search, once the independent components are in place.
+     */
+    private static class GapSolver extends PathSolver {
+        private static final String NAME = "Gap decomposition";
+        // Longer gaps have too many paths to list, and are left open
+        private static final int MAX_GAP_LENGTH = 12;
+        // A gap with more paths than this is left open as well
+        private static final int MAX_PATHS_PER_GAP = 5000;
+        
+        // Cells that some remaining path of a component could still cover
+        private final long[] coverable;
+        // Cells that the open parts of the board can reach
+        private final long[] openReach;
+        // The cells of the paths of the component being solved
+        private final long[] componentCells;
+        
+        public GapSolver(SearchContext context, AtomicBoolean cancelled) {
+            super(context, cancelled);
+            coverable = new long[topology.getWordCount()];
+            openReach = new long[topology.getWordCount()];
+            componentCells = new long[topology.getWordCount()];
+        }
+        
+        @Override
+        public boolean solve(int currentValue) {
+            // Cancelled or out of time before it even started
+            if (isAborted()) {
+                return false;
+            }
+            return decompose(1, true) > 0;
+        }
+        
+        @Override
+        public int countSolutions(int currentValue, int limit) {
+            return decompose(limit, false);
+        }
+        
+        // Finds up to limit solutions of the board, which must hold every
+        // value below the lowest missing one. Solving stops at the first
+        // solution and leaves it on the board, counting puts the board back
+        // the way it was. Returns the number of solutions, or UNKNOWN_COUNT
+        // if the search gave up first.
+        private int decompose(int limit, boolean solving) {
+            ArrayList<Gap[]> components = findIndependentComponents();
+            // Listing the paths gave up, so they may be incomplete
+            if (isAborted()) {
+                return UNKNOWN_COUNT;
+            }
+            if (components == null) {
+                return 0;
+            }
+            // The paths of the components placed so far
+            ArrayList<int[]> chosen = new ArrayList<>();
+            long solutions = 1;
+            int result = UNKNOWN_COUNT;
+            for (Gap[] component: components) {
+                int[] paths = new int[component.length];
+                int found = cover(component, paths, solving ? 1 : limit, solving);
+                if (found > 0 && !solving) {
+                    // Any solution of the component will do for the rest
+                    cover(component, paths, 1, true);
+                }
+                if (found <= 0) {
+                    result = found;
+                    break;
+                }
+                chosen.add(paths);
+                solutions = Math.min(limit, solutions * found);
+            }
+            if (chosen.size() == components.size()) {
+                int found = finish(limit, solving);
+                if (solving && found > 0) {
+                    // The solution stays on the board
+                    return 1;
+                }
+                result = found <= 0 ? found : (int) Math.min(limit, solutions * found);
+            }
+            for (int i = chosen.size() - 1; i >= 0; i--) {
+                undoPaths(components.get(i), chosen.get(i), components.get(i).length);
+            }
+            return result;
+        }
+        
+        // Lists the gaps on the board and groups them into components,
+        // returning the independent ones. Returns null if some empty cell
+        // can't be covered at all.
+        private ArrayList<Gap[]> findIndependentComponents() {
+            Arrays.fill(openReach, 0);
+            ArrayList<Gap> gaps = new ArrayList<>();
+            int value = board.getNextPlacedValue(EMPTY_HEX);
+            int next = board.getNextPlacedValue(value);
+            while (next != EMPTY_HEX) {
+                if (next - value > 1) {
+                    Gap gap = new Gap(value, next);
+                    if (gap.length() <= MAX_GAP_LENGTH &&
+                            listPaths(gap, board.getPosition(value), new int[gap.length()], 0)) {
+                        gaps.add(gap);
+                    } else {
+                        addReach(gap, openReach);
+                    }
+                }
+                value = next;
+                next = board.getNextPlacedValue(value);
+            }
+            // The values after the highest one can go as far as there are
+            // values left
+            int highest = board.getPosition(value);
+            for (int cell = 0; cell < board.size(); cell++) {
+                if (topology.distance(highest, cell) <= board.size() - value) {
+                    openReach[cell >>> 6] |= 1L << cell;
+                }
+            }
+            
+            // Gaps that share a cell are in the same component
+            int[] component = new int[gaps.size()];
+            int[] owner = new int[board.size()];
+            Arrays.fill(owner, -1);
+            for (int i = 0; i < gaps.size(); i++) {
+                component[i] = i;
+                for (int[] path: gaps.get(i).paths) {
+                    for (int cell: path) {
+                        if (owner[cell] < 0) {
+                            owner[cell] = i;
+                        } else {
+                            merge(component, owner[cell], i);
+                        }
+                    }
+                }
+            }
+            // A component within reach of the open parts is open itself,
+            // which can bring other components within reach in turn.
+            boolean[] open = new boolean[gaps.size()];
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int i = 0; i < gaps.size(); i++) {
+                    int root = find(component, i);
+                    if (!open[root] && touches(gaps.get(i), openReach)) {
+                        open[root] = true;
+                        changed = true;
+                    }
+                }
+                for (int i = 0; i < gaps.size() && changed; i++) {
+                    if (open[find(component, i)]) {
+                        addReach(gaps.get(i), openReach);
+                    }
+                }
+            }
             
-            // If the next value is already placed, then the current value must be
-            // placed next to it.
-            recursionSteps++;
-            boolean nextValueExists = !remainingValues.contains(currentValue + 1);
-            CubeHex parent = getPosition(currentValue - 1);
-            for (CubeHex candidate: getEmptyNeighbors(parent)) {
-                if (remainingValues.contains(currentValue + 1) ||
-                    getAdjacentValues(candidate).contains(currentValue + 1) || 
-                    currentValue > Collections.max(grid.values())) {
-                    // Nodes that are part of the initial problem
-                    // declaration should not be changed
-                    assert !DEFAULT_INITIAL_STATE.keySet().contains(candidate);
-                    logWriteStream.println("Placing " + currentValue + " at " + candidate);
-                    remainingValues.remove(currentValue);
-                    grid.put(candidate, currentValue);
-                    printGrid(logWriteStream);
-                    if (remainingValues.isEmpty()) {
-                        /*
-                         * No more values to place, so we check if the current
-                         * grid represents a good solution, and cascade the 
-                         * answer back up the recursion.
-                         */                        
-                        return checkSolution();
-                    } else if (solve(Collections.min(remainingValues))) { // Attempt to place the next value
-                        // Found a solution, so we cascade it up the recursion.
+            // Every empty cell has to be covered by something
+            for (int cell = 0; cell < board.size(); cell++) {
+                if (board.isEmpty(cell) && owner[cell] < 0 &&
+                        (openReach[cell >>> 6] & (1L << cell)) == 0) {
+                    metrics.prune(SolveMetrics.Rule.DEAD_REGION);
+                    return null;
+                }
+            }
+            HashMap<Integer, ArrayList<Gap>> members = new HashMap<>();
+            for (int i = 0; i < gaps.size(); i++) {
+                int root = find(component, i);
+                if (!open[root]) {
+                    members.computeIfAbsent(root, key -> new ArrayList<>()).add(gaps.get(i));
+                }
+            }
+            ArrayList<Gap[]> components = new ArrayList<>();
+            for (ArrayList<Gap> list: members.values()) {
+                components.add(list.toArray(new Gap[list.size()]));
+            }
+            return components;
+        }
+        
+        private int find(int[] component, int i) {
+            while (component[i] != i) {
+                component[i] = component[component[i]];
+                i = component[i];
+            }
+            return i;
+        }
+        
+        private void merge(int[] component, int first, int second) {
+            component[find(component, first)] = find(component, second);
+        }
+        
+        // Whether any path of the gap passes through the given cells
+        private boolean touches(Gap gap, long[] cells) {
+            for (int[] path: gap.paths) {
+                for (int cell: path) {
+                    if ((cells[cell >>> 6] & (1L << cell)) != 0) {
                         return true;
-                    } else {
-                        // undo previous step before checking the next neighbor.
-                        logWriteStream.println("Could not place " + currentValue + " at " + candidate);
-                        grid.put(candidate, EMPTY_HEX);
-                        remainingValues.add(currentValue);
-                        printGrid(logWriteStream);
                     }
                 }
             }
-            // Couldn't place currentValue in any viable neighbor
             return false;
         }
+        
+        // Adds the cells that a path bridging the gap could pass through
+        private void addReach(Gap gap, long[] cells) {
+            int from = board.getPosition(gap.from);
+            int to = board.getPosition(gap.to);
+            for (int cell = 0; cell < board.size(); cell++) {
+                if (topology.distance(from, cell) + topology.distance(cell, to) <= gap.to - gap.from) {
+                    cells[cell >>> 6] |= 1L << cell;
+                }
+            }
+        }
+        
+        // Adds the paths of the gap that start with the given prefix, which
+        // ends next to cell. Returns false if there are too many of them, or
+        // if the search was cancelled or ran out of time.
+        private boolean listPaths(Gap gap, int cell, int[] path, int length) {
+            countStep();
+            if (isAborted()) {
+                return false;
+            }
+            int target = board.getPosition(gap.to);
+            if (length == path.length) {
+                if (topology.distance(cell, target) == 1) {
+                    gap.paths.add(path.clone());
+                }
+                return gap.paths.size() <= MAX_PATHS_PER_GAP;
+            }
+            for (int n = topology.getNeighborStart(cell); n < topology.getNeighborStart(cell + 1); n++) {
+                int neighbor = topology.getNeighbor(n);
+                // Only cells from which the rest of the gap can reach the
+                // target in time
+                if (!board.isEmpty(neighbor) ||
+                        topology.distance(neighbor, target) > path.length - length) {
+                    continue;
+                }
+                // The value marks the cell as taken while the path goes on
+                board.place(neighbor, gap.from + 1 + length);
+                path[length] = neighbor;
+                boolean listed = listPaths(gap, neighbor, path, length + 1);
+                board.clear(neighbor);
+                if (!listed) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        // Finds up to limit ways of choosing a path for every gap of the
+        // component, writing the path of each gap to chosen. Solving stops
+        // at the first way and leaves it on the board, counting puts the
+        // board back the way it was. Returns the number of ways found, or
+        // UNKNOWN_COUNT if the search gave up first.
+        private int cover(Gap[] gaps, int[] chosen, int limit, boolean solving) {
+            Arrays.fill(componentCells, 0);
+            for (Gap gap: gaps) {
+                for (int[] path: gap.paths) {
+                    for (int cell: path) {
+                        componentCells[cell >>> 6] |= 1L << cell;
+                    }
+                }
+            }
+            int solutions = 0;
+            int depth = 0;
+            boolean entering = true;
+            while (depth >= 0) {
+                if (isAborted()) {
+                    undoPaths(gaps, chosen, depth);
+                    return UNKNOWN_COUNT;
+                }
+                if (entering) {
+                    if (depth == gaps.length) {
+                        solutions++;
+                        if (solving) {
+                            return solutions;
+                        }
+                        if (solutions >= limit) {
+                            undoPaths(gaps, chosen, depth);
+                            return solutions;
+                        }
+                        depth--;
+                        entering = false;
+                        continue;
+                    }
+                    int next = chooseGap(gaps, depth);
+                    if (next < 0) {
+                        depth--;
+                        entering = false;
+                        continue;
+                    }
+                    Gap swap = gaps[depth];
+                    gaps[depth] = gaps[next];
+                    gaps[next] = swap;
+                    chosen[depth] = -1;
+                } else {
+                    clearPath(gaps[depth], chosen[depth]);
+                }
+                Gap gap = gaps[depth];
+                int path = chosen[depth] + 1;
+                while (path < gap.paths.size() && !fits(gap.paths.get(path))) {
+                    path++;
+                }
+                if (path == gap.paths.size()) {
+                    depth--;
+                    entering = false;
+                    continue;
+                }
+                placePath(gap, path);
+                chosen[depth] = path;
+                depth++;
+                entering = true;
+            }
+            return solutions;
+        }
+        
+        // The index of the gap from depth onwards that has the fewest paths
+        // that fit, or -1 if one of them has none, or if some empty cell of
+        // the component can't be covered by any of them.
+        private int chooseGap(Gap[] gaps, int depth) {
+            countNode();
+            metrics.node(gaps[depth].from + 1);
+            Arrays.fill(coverable, 0);
+            int best = -1;
+            int fewest = Integer.MAX_VALUE;
+            for (int i = depth; i < gaps.length; i++) {
+                int count = 0;
+                for (int[] path: gaps[i].paths) {
+                    if (fits(path)) {
+                        count++;
+                        for (int cell: path) {
+                            coverable[cell >>> 6] |= 1L << cell;
+                        }
+                    }
+                }
+                if (count == 0) {
+                    metrics.prune(SolveMetrics.Rule.CLUE_GAP);
+                    return -1;
+                }
+                if (count < fewest) {
+                    fewest = count;
+                    best = i;
+                }
+            }
+            for (int word = 0; word < coverable.length; word++) {
+                if ((componentCells[word] & ~board.getOccupied(word) & ~coverable[word]) != 0) {
+                    metrics.prune(SolveMetrics.Rule.DEAD_REGION);
+                    return -1;
+                }
+            }
+            return best;
+        }
+        
+        // Solves or counts the rest of the board once the independent
+        // components are in place.
+        private int finish(int limit, boolean solving) {
+            if (board.isFull()) {
+                return board.isSolved() ? 1 : 0;
+            }
+            if (!gaps.isFeasible()) {
+                metrics.prune(SolveMetrics.Rule.CLUE_GAP);
+                return 0;
+            }
+            int next = board.getNextMissingValue(EMPTY_HEX);
+            if (solving) {
+                if (super.solve(next)) {
+                    return 1;
+                }
+                return isAborted() ? UNKNOWN_COUNT : 0;
+            }
+            return super.countSolutions(next, limit);
+        }
+        
+        private boolean fits(int[] path) {
+            for (int cell: path) {
+                if (!board.isEmpty(cell)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        private void placePath(Gap gap, int path) {
+            int[] cells = gap.paths.get(path);
+            for (int i = 0; i < cells.length; i++) {
+                board.place(cells[i], gap.from + 1 + i);
+            }
+            if (trace.steps) {
+                traceStep(trace, board, "Bridging " + gap.from + " to " + gap.to);
+            }
+        }
+        
+        private void clearPath(Gap gap, int path) {
+            for (int cell: gap.paths.get(path)) {
+                board.clear(cell);
+            }
+            metrics.backtrack(gap.from + 1);
+            if (trace.steps) {
+                traceStep(trace, board, "Could not bridge " + gap.from + " to " + gap.to);
+            }
+        }
+        
+        // Clears the paths of the gaps before depth
+        private void undoPaths(Gap[] gaps, int[] chosen, int depth) {
+            for (int i = depth - 1; i >= 0; i--) {
+                clearPath(gaps[i], chosen[i]);
+            }
+        }
 
         @Override
         public String getName() {
             return NAME;
         }
     }
-
-    private void solve(Solver solver) {
-        System.out.println("Initial state:");
-        printGrid(System.out);
-        logWriteStream.println("Attempting to solve with " + solver.getName());
-        if (initializeSolution(solver)) {
-            System.out.println("Puzzle solved successfully with " + 
-                    recursionSteps + " recursive calls.");
-        } else {
-            System.out.println("Could not find solution within " + 
-                    recursionSteps + " steps. Solution does not exist?");
+    
+    // The solving algorithms available outside of the interactive menu
+    enum Algorithm {
+        DFS, PATHFINDING, GAPS
+    }
+    
+    // How a solve with a budget ended
+    enum Outcome {
+        // A solution was found and is on the grid
+        SOLVED,
+        // The whole search finished without finding a solution, so there is
+        // none
+        UNSOLVABLE,
+        // The search ran out of time before it could tell
+        TIMED_OUT,
+        // The search was cancelled before it could tell
+        CANCELLED
+    }
+    
+    // The orders in which a solver can try the cells for the next value
+    enum MoveOrder {
+        // The order of the cells on the grid
+        NATURAL,
+        // The cells closest to the next value on the grid first
+        DISTANCE,
+        // The cells with the fewest empty neighbors first, as in Warnsdorff's
+        // rule for the knight's tour, and the closest ones among those
+        WARNSDORFF,
+        // As WARNSDORFF, except that a cell with no other way into the path
+        // is the only one tried
+        FORCED
+    }
+    
+    private static SearchSolver createSolver(Algorithm algorithm, SearchContext context, AtomicBoolean cancelled) {
+        switch (algorithm) {
+            case DFS:
+                return new DFSSolver(context, cancelled);
+            case PATHFINDING:
+                return new PathSolver(context, cancelled);
+            case GAPS:
+                return new GapSolver(context, cancelled);
+            default:
+                throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
         }
-        printGrid(System.out);
     }
     
+    // The name of the solvers of the given algorithm
+    private static String getSolverName(Algorithm algorithm) {
+        switch (algorithm) {
+            case DFS:
+                return DFSSolver.NAME;
+            case PATHFINDING:
+                return PathSolver.NAME;
+            case GAPS:
+                return GapSolver.NAME;
+            default:
+                throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+        }
+    }
     
+    // A context holding a copy of the grid, with the settings of this
+    // puzzle, taken from the pool if there is one. Given back with
+    // releaseContext.
+    private SearchContext acquireContext() {
+        SearchContext context = contexts == null ? new SearchContext(topology) : contexts.acquire(topology);
+        synchronized (this) {
+            context.reset(board);
+        }
+        context.configure(moveOrder, seed, trace);
+        return context;
+    }
     
-    /**
-     * Adds the neighbors of the given node to the grid representation,
-     * if they are valid and aren't in the grid already.
-     * 
-     * @param node 
-     */
-    private void addNeighbors(CubeHex node) {
-        //System.err.println("Adding neighbors of: " + node.toString());
-        for (CubeHex neighbor: node.getNeighbors()) {
-            if (isValidCoordinate(neighbor) && !grid.containsKey(neighbor)) {
-                //System.err.println(node.toString());
-                grid.put(neighbor, EMPTY_HEX);
-                addNeighbors(neighbor);
-            }
+    private void releaseContext(SearchContext context) {
+        context.getBoard().setRecorder(null);
+        if (contexts != null) {
+            contexts.release(context);
         }
     }
     
-    private HashSet<CubeHex> getEmptyNeighbors(CubeHex hex) {
-        HashSet<CubeHex> neighbors = new HashSet();
-        for (CubeHex neighbor: hex.getNeighbors()) {
-            if (grid.containsKey(neighbor) && grid.get(neighbor) == EMPTY_HEX) {
-                neighbors.add(neighbor);
+    // Solves the puzzle without printing anything, giving up once cancelled
+    // is set or once timeoutMillis have passed, unless that's 0. The
+    // listener, if not null, is told how the search is doing as it goes.
+    // Searches a context of its own, so several solves of the same puzzle
+    // may run at once, and the first solution found is copied to the grid.
+    Outcome solve(Algorithm algorithm, AtomicBoolean cancelled, long timeoutMillis,
+            SolveMetrics.ProgressListener listener) {
+        SearchContext context = acquireContext();
+        try {
+            context.getBoard().setRecorder(recorder);
+            SearchSolver solver = createSolver(algorithm, context, cancelled);
+            if (timeoutMillis > 0) {
+                solver.setDeadline(System.nanoTime() + timeoutMillis * 1_000_000L);
+            }
+            solver.getMetrics().setProgressListener(listener);
+            if (initializeSolution(solver)) {
+                fill(context.getBoard());
+                return Outcome.SOLVED;
             }
+            if (solver.isTimedOut()) {
+                return Outcome.TIMED_OUT;
+            }
+            return cancelled.get() ? Outcome.CANCELLED : Outcome.UNSOLVABLE;
+        } finally {
+            releaseContext(context);
         }
-        return neighbors;
     }
     
-    private HashSet<Integer> getAdjacentValues(CubeHex hex) {
-        HashSet<Integer> neighbors = new HashSet();
-        for (CubeHex neighbor: hex.getNeighbors()) {
-            if (grid.containsKey(neighbor) && grid.get(neighbor) != EMPTY_HEX) {
-                neighbors.add(grid.get(neighbor));
+    // Counts the solutions of the puzzle, but no further than limit, without
+    // changing the grid. Returns UNKNOWN_COUNT if more than nodeLimit
+    // subproblems had to be searched, or if cancelled was set first.
+    int countSolutions(Algorithm algorithm, int limit, long nodeLimit, AtomicBoolean cancelled) {
+        SearchContext context = acquireContext();
+        try {
+            SearchSolver solver = createSolver(algorithm, context, cancelled);
+            solver.setNodeLimit(nodeLimit);
+            SolveMetrics countMetrics = solver.getMetrics();
+            countMetrics.start();
+            int solutions = countSolutions(solver, context.getBoard(), limit);
+            countMetrics.finish(solutions > 0);
+            metrics = countMetrics;
+            return solutions;
+        } finally {
+            releaseContext(context);
+        }
+    }
+    
+    private int countSolutions(SearchSolver solver, Board copy, int limit) {
+        if (!solver.getContext().getGaps().isFeasible()) {
+            return 0;
+        }
+        if (copy.isFull()) {
+            return copy.isSolved() ? 1 : 0;
+        }
+        if (getLowestPlacedValue(copy) == 1) {
+            return solver.countSolutions(copy.getNextMissingValue(1), limit);
+        }
+        int solutions = 0;
+        for (int candidate : getStartCandidates(copy)) {
+            copy.place(candidate, 1);
+            int found = copy.isFull() ? (copy.isSolved() ? 1 : 0) :
+                    solver.countSolutions(copy.getNextMissingValue(1), limit - solutions);
+            copy.clear(candidate);
+            if (found == UNKNOWN_COUNT) {
+                return UNKNOWN_COUNT;
+            }
+            solutions += found;
+            if (solutions >= limit) {
+                break;
             }
         }
-        return neighbors;
+        return solutions;
+    }
+    
+    // Whether the puzzle has exactly one solution. The search stops at the
+    // second solution, so this is much cheaper than counting them all.
+    // Gives up and returns false after nodeLimit subproblems.
+    boolean hasUniqueSolution(Algorithm algorithm, long nodeLimit) {
+        return countSolutions(algorithm, 2, nodeLimit, new AtomicBoolean()) == 1;
     }
     
-    private boolean legalPosition(int value) {
-        CubeHex position = getPosition(value);
-        // The values that need to be adjacent to this one
-        HashSet<Integer> expectedNeighbors = new HashSet<>();
-        if (value > 1) {
-            expectedNeighbors.add(value - 1);
+    // What the last solve or count of this puzzle to finish did, or null if
+    // there hasn't been one
+    SolveMetrics getMetrics() {
+        return metrics;
+    }
+    
+    // A copy of the grid in its current state
+    synchronized Board getBoard() {
+        return new Board(board);
+    }
+    
+    // Takes over the result of a solve that ran on a copy of this puzzle,
+    // as a SolverPortfolio does: its metrics, and its solution unless
+    // that's null.
+    void adopt(SolveMetrics metrics, Board solution) {
+        this.metrics = metrics;
+        if (solution != null) {
+            fill(solution);
         }
-        if (value < grid.size()) {
-            expectedNeighbors.add(value + 1);
+    }
+    
+    // Copies the values of a solution of this puzzle into the empty cells.
+    // A solve that finishes after another one already filled the grid
+    // leaves it as it is.
+    private synchronized void fill(Board solution) {
+        for (int cell = 0; cell < board.size(); cell++) {
+            if (board.isEmpty(cell)) {
+                board.place(cell, solution.get(cell));
+            }
         }
-        
-        return getAdjacentValues(position).containsAll(expectedNeighbors);
     }
     
-    private boolean checkSolution() {
-        for (int i = 1; i <= grid.size(); i++) {
-            if (!legalPosition(i)) {
+    static HashMap<CubeHex, Integer> getDefaultInitialState() {
+        return new HashMap<>(DEFAULT_INITIAL_STATE);
+    }
+    
+    /*
+     * Splits the search between the threads of a fork-join pool. Every 
+     * starting position for 1 becomes a task, and every task keeps forking
+     * a subtask per candidate for the next value, each on its own copy of the
+     * board, for as long as the pool is short of queued work. Idle threads
+     * steal those subtasks, and a task that doesn't split loads its board
+     * into the context of its thread and runs an ordinary solver there. The
+     * first task to find a solution cancels the rest.
+     */
+    private class ParallelSearch {
+        // No task splits deeper than this, so that the copies stay cheap
+        // relative to the work they carry.
+        private static final int MAX_SPLIT_DEPTH = 12;
+        // A task keeps splitting while its thread has at most this many
+        // queued tasks that no other thread has stolen yet.
+        private static final int SURPLUS_THRESHOLD = 2;
+        
+        private final Algorithm algorithm;
+        private final AtomicBoolean found = new AtomicBoolean();
+        // The context of each worker thread, shared by all the solvers that
+        // run on it, and given back to the pool at the end. Failed states
+        // are the same for every task, as they all start from the same
+        // clues, so the tasks keep the transposition table of the context.
+        private final ConcurrentHashMap<Thread, SearchContext> threadContexts = new ConcurrentHashMap<>();
+        // The metrics of each worker thread, which the metrics of the
+        // solvers that run on it are merged into, and which are merged into
+        // the metrics of the whole search at the end. This way the threads
+        // never wait on each other to count.
+        private final ConcurrentHashMap<Thread, SolveMetrics> threadMetrics = new ConcurrentHashMap<>();
+        private final String name;
+        private volatile Board solution;
+        
+        public ParallelSearch(Algorithm algorithm) {
+            this.algorithm = algorithm;
+            this.name = getSolverName(algorithm) + " (parallel)";
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        // Runs the search and copies the solution, if any, onto the grid.
+        public boolean run(ForkJoinPool pool) {
+            SolveMetrics searchMetrics = new SolveMetrics(name, board.size());
+            searchMetrics.start();
+            boolean solved;
+            try {
+                solved = search(pool);
+            } finally {
+                for (SearchContext context: threadContexts.values()) {
+                    releaseContext(context);
+                }
+            }
+            for (SolveMetrics part: threadMetrics.values()) {
+                searchMetrics.merge(part);
+            }
+            searchMetrics.finish(solved);
+            metrics = searchMetrics;
+            return solved;
+        }
+        
+        private boolean search(ForkJoinPool pool) {
+            Board initial = getBoard();
+            if (!new ClueGapPropagator(initial).isFeasible()) {
+                return false;
+            }
+            ArrayList<SearchTask> tasks = new ArrayList<>();
+            if (getLowestPlacedValue(initial) == 1) {
+                tasks.add(new SearchTask(initial, 0));
+            } else {
+                for (int candidate: getStartCandidates(initial)) {
+                    Board start = new Board(initial);
+                    start.place(candidate, 1);
+                    tasks.add(new SearchTask(start, 0));
+                }
+            }
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+            if (solution == null) {
                 return false;
             }
+            fill(solution);
+            return true;
+        }
+        
+        private void report(Board candidate) {
+            if (found.compareAndSet(false, true)) {
+                solution = candidate;
+            }
+        }
+        
+        private SolveMetrics getThreadMetrics() {
+            return threadMetrics.computeIfAbsent(Thread.currentThread(),
+                    thread -> new SolveMetrics(name, board.size()));
+        }
+        
+        private class SearchTask extends RecursiveAction {
+            // Tasks are never serialized, RecursiveAction just happens to be
+            // Serializable
+            private static final long serialVersionUID = 1L;
+            private final Board board;
+            private final int depth;
+            
+            public SearchTask(Board board, int depth) {
+                this.board = board;
+                this.depth = depth;
+            }
+            
+            @Override
+            protected void compute() {
+                if (found.get()) {
+                    return;
+                }
+                if (board.isFull()) {
+                    if (board.isSolved()) {
+                        report(board);
+                    }
+                    return;
+                }
+                int currentValue = board.getNextMissingValue(EMPTY_HEX);
+                if (depth >= MAX_SPLIT_DEPTH || getSurplusQueuedTaskCount() > SURPLUS_THRESHOLD) {
+                    SearchContext context = threadContexts.computeIfAbsent(Thread.currentThread(),
+                            thread -> acquireContext());
+                    context.load(board);
+                    Solver solver = createSolver(algorithm, context, found);
+                    solver.getMetrics().resume();
+                    boolean solved = solver.solve(currentValue);
+                    solver.getMetrics().pause();
+                    getThreadMetrics().merge(solver.getMetrics());
+                    if (solved) {
+                        report(new Board(context.getBoard()));
+                    }
+                    return;
+                }
+                getThreadMetrics().node(currentValue);
+                int parent = board.getPosition(currentValue - 1);
+                int targetValue = board.getNextPlacedValue(currentValue);
+                ArrayList<SearchTask> children = new ArrayList<>();
+                for (int word = topology.getFirstNeighborWord(parent); word <= topology.getLastNeighborWord(parent); word++) {
+                    for (long empty = board.getEmptyNeighbors(parent, word); empty != 0; empty &= empty - 1) {
+                        int candidate = (word << 6) + Long.numberOfTrailingZeros(empty);
+                        // Only split on placements that can still reach the
+                        // next value on the grid in time.
+                        if (targetValue != EMPTY_HEX && topology.distance(candidate,
+                                board.getPosition(targetValue)) > targetValue - currentValue) {
+                            continue;
+                        }
+                        Board child = new Board(board);
+                        child.place(candidate, currentValue);
+                        children.add(new SearchTask(child, depth + 1));
+                    }
+                }
+                invokeAll(children);
+            }
+        }
+    }
+
+    private void solve(Algorithm algorithm) {
+        System.out.println("Initial state:");
+        printGrid(System.out);
+        SearchContext context = acquireContext();
+        try {
+            context.getBoard().setRecorder(recorder);
+            Solver solver = createSolver(algorithm, context, new AtomicBoolean());
+            if (trace.summary) {
+                trace.write("Attempting to solve with " + solver.getName());
+                Board board = context.getBoard();
+                // The longest run of values from 1 on the board at any progress
+                // report, as TraceReplay counts it
+                int[] longestRun = new int[1];
+                solver.getMetrics().setProgressListener((depth, nodes, maxDepth) -> {
+                    int missing = board.getNextMissingValue(EMPTY_HEX);
+                    int run = missing == EMPTY_HEX ? board.size() : missing - 1;
+                    longestRun[0] = Math.max(longestRun[0], run);
+                    trace.write("Searched " + nodes + " nodes, now at " + depth +
+                            ", longest path so far " + longestRun[0]);
+                });
+            }
+            boolean solved = initializeSolution(solver);
+            if (solved) {
+                fill(context.getBoard());
+            }
+            report(solved, solver.getName());
+        } finally {
+            releaseContext(context);
         }
-        return true;
     }
     
-    // The number of hexes in the grid
-    private int getGridSize() {
-        int size = 1;
-        for (int i = 1; i <= maxRadius; i++) {
-            size += 6*i;
+    // Solves the puzzle using all available cores, with a solver of the
+    // given algorithm for each part of the search.
+    private void solveInParallel(Algorithm algorithm) {
+        ParallelSearch search = new ParallelSearch(algorithm);
+        System.out.println("Initial state:");
+        printGrid(System.out);
+        if (trace.summary) {
+            trace.write("Attempting to solve with " + search.getName());
+        }
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            report(search.run(pool), search.getName());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    // Races the solvers of the default portfolio against each other, each on
+    // its own copy of the grid, and keeps the result of the first to finish.
+    private void solveRacing() {
+        System.out.println("Initial state:");
+        printGrid(System.out);
+        try (SolverPortfolio portfolio = new SolverPortfolio()) {
+            if (trace.summary) {
+                trace.write("Racing " + portfolio.getWins().keySet());
+            }
+            SolverPortfolio.Result result = portfolio.race(this, new AtomicBoolean(), 0);
+            String name = "Portfolio";
+            if (result.getWinner() != null) {
+                name += " (" + result.getWinner() + ")";
+                System.out.println("The first to finish was " + result.getWinner() + ".");
+            }
+            report(result.getOutcome() == Outcome.SOLVED, name);
         }
-        return size;
     }
     
-    private boolean isValidCoordinate (CubeHex point) {
-        return point.getX() + point.getY() + point.getZ() == 0 &&
-               Math.abs(point.getX()) <= maxRadius &&
-               Math.abs(point.getY()) <= maxRadius &&
-               Math.abs(point.getZ()) <= maxRadius;
+    private void report(boolean solved, String solverName) {
+        if (solved) {
+            System.out.println("Puzzle solved successfully with " + 
+                    metrics.getNodes() + " recursive calls.");
+            if (trace.summary) {
+                trace.write("Solved with " + solverName + " in " + metrics.getNodes() + " recursive calls.");
+                trace.write(metrics.toString());
+            }
+        } else {
+            System.out.println("Could not find solution within " + 
+                    metrics.getNodes() + " steps. Solution does not exist?");
+            if (trace.summary) {
+                trace.write("No solution after " + metrics.getNodes() + " recursive calls.");
+                trace.write(metrics.toString());
+            }
+        }
+        printGrid(System.out);
     }
     
     
     
+    // Opens the trace requested on the command line: an optional trace level
+    // (off, summary or step) followed by an optional log file path.
+    private static SearchTrace openTrace(String[] args) throws IOException {
+        if (args.length == 0) {
+            return SearchTrace.OFF;
+        }
+        TraceLevel level;
+        try {
+            level = TraceLevel.valueOf(args[0].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown trace level: " + args[0]);
+        }
+        if (level == TraceLevel.OFF) {
+            return SearchTrace.OFF;
+        }
+        String path = args.length > 1 ? args[1] : LOG_PATH;
+        return new SearchTrace(level, 
+                new AsyncTraceWriter(new BufferedWriter(new FileWriter(path))));
+    }
     
     /**
-     * @param args the command line arguments
+     * @param args the command line arguments: an optional trace level
+     * (off, summary or step) and an optional path for the trace, or binary
+     * and an optional path for a binary trace, see {@link TraceReplay}
      */
     public static void main(String[] args) {
         Scanner input = new Scanner(System.in);
-        HexGridPuzzle puzzle = null;
+        HexGridPuzzle created = null;
+        SearchTrace trace = null;
+        BinaryTraceWriter recorder = null;
         try {
-            puzzle = new HexGridPuzzle();
+            created = new HexGridPuzzle();
+            if (args.length > 0 && args[0].equalsIgnoreCase(BINARY_TRACE)) {
+                trace = SearchTrace.OFF;
+                recorder = new BinaryTraceWriter(Paths.get(args.length > 1 ? args[1] : BINARY_TRACE_PATH),
+                        created.board);
+                created.setRecorder(recorder);
+            } else {
+                trace = openTrace(args);
+            }
+            created.setTrace(trace);
         } catch (Exception e) {
             System.err.println(e.getMessage());
             System.exit(1);
         }
+        final HexGridPuzzle puzzle = created;
         // Indicate that the game loop is still running
         boolean running = true;
         while (running) {
             System.out.println("What would you like to do?");
             System.out.println("1) Solve using a simple DFS algorithm.");
             System.out.println("2) Solve through pathfinding.");
+            System.out.println("3) Solve using DFS on all cores.");
+            System.out.println("4) Solve through pathfinding on all cores.");
+            System.out.println("5) Solve by bridging the gaps between the given values.");
+            System.out.println("6) Race several solvers and keep the first to finish.");
             try {
                 int selection = input.nextInt();
                 switch (selection) {
                     case 1:
-                        puzzle.solve(puzzle.new DFSSolver());
+                        puzzle.solve(Algorithm.DFS);
                         running = false;
                         break;
                     case 2:
-                        puzzle.solve(puzzle.new PathSolver());
+                        puzzle.solve(Algorithm.PATHFINDING);
+                        running = false;
+                        break;
+                    case 3:
+                        puzzle.solveInParallel(Algorithm.DFS);
+                        running = false;
+                        break;
+                    case 4:
+                        puzzle.solveInParallel(Algorithm.PATHFINDING);
+                        running = false;
+                        break;
+                    case 5:
+                        puzzle.solve(Algorithm.GAPS);
+                        running = false;
+                        break;
+                    case 6:
+                        puzzle.solveRacing();
                         running = false;
                         break;
                     default:
@@ -489,15 +1886,17 @@ public class HexGridPuzzle {
             } catch (InputMismatchException e) {
                 System.out.println("Please enter an integer number.\n");
                 input.nextLine(); // remove the faulty line from the stream
-            } finally {
-                try {
-                    puzzle.logWriteStream.close();
-                } catch (Exception e) {
-                    System.err.println(e.getMessage());
-                    System.err.println(e.getStackTrace());
-                }
             }
             
         }
+        trace.close();
+        if (recorder != null) {
+            try {
+                recorder.close();
+                System.out.println(recorder.getEventCount() + " events written to " + recorder.getPath());
+            } catch (IOException e) {
+                System.err.println("Could not write trace: " + e.getMessage());
+            }
+        }
     }   
 }
@@ -0,0 +1,123 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads and writes puzzles as single lines of text.</br>
+ * </br>
+ * A puzzle is written as its radius, a colon, and then the value of every
+ * cell in printing order (top to bottom, left to right) separated by commas,
+ * with 0 for an empty cell. For example, a puzzle of radius 1 with 1 in the
+ * top left cell and 7 in the bottom right cell is written as
+ * <pre>
+ * 1:1,0,0,0,0,0,7
+ * </pre>
+ * Blank lines and lines starting with # are not puzzles. Radii above
+ * {@link #MAX_RADIUS} are rejected.
+ *
+ * @author NadavNV
+ */
+class PuzzleFormat {
+    private static final char RADIUS_SEPARATOR = ':';
+    private static final char VALUE_SEPARATOR = ',';
+    private static final String COMMENT = "#";
+    // The largest radius of a puzzle that is read, or whose topology is
+    // built. A hexagon of this radius has 30301 cells.
+    static final int MAX_RADIUS = 100;
+
+    // Topologies are immutable, so every puzzle of the same radius shares one.
+    // Only this many radii are kept, so that lines of ever new radii don't
+    // keep a topology each. Puzzles of the radii past them get their own.
+    private static final int MAX_CACHED_TOPOLOGIES = 16;
+    private static final ConcurrentHashMap<Integer, BoardTopology> TOPOLOGIES = new ConcurrentHashMap<>();
+
+    private PuzzleFormat() {
+    }
+
+    public static BoardTopology getTopology(int radius) throws IllegalArgumentException {
+        if (radius > MAX_RADIUS) {
+            throw new IllegalArgumentException("Radius " + radius + " is larger than the largest supported, " +
+                    MAX_RADIUS);
+        }
+        BoardTopology topology = TOPOLOGIES.get(radius);
+        if (topology != null) {
+            return topology;
+        }
+        if (TOPOLOGIES.size() >= MAX_CACHED_TOPOLOGIES) {
+            return new BoardTopology(radius);
+        }
+        return TOPOLOGIES.computeIfAbsent(radius, BoardTopology::new);
+    }
+
+    // How many cells a hexagon of the given radius has
+    public static long getCellCount(int radius) {
+        return 3L * radius * (radius + 1) + 1;
+    }
+
+    // Whether the given line holds a puzzle, rather than being blank or a
+    // comment.
+    public static boolean isPuzzle(String line) {
+        String trimmed = line.trim();
+        return !trimmed.isEmpty() && !trimmed.startsWith(COMMENT);
+    }
+
+    // Only boards on a whole hexagon can be written, as the radius is all
+    // that's kept of the shape.
+    public static String format(Board board) throws IllegalArgumentException {
+        if (!board.getTopology().isHexagon()) {
+            throw new IllegalArgumentException("Only puzzles on a hexagon can be written as a line");
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append(board.getTopology().getMaxRadius()).append(RADIUS_SEPARATOR);
+        for (int cell = 0; cell < board.size(); cell++) {
+            if (cell > 0) {
+                builder.append(VALUE_SEPARATOR);
+            }
+            builder.append(board.get(cell));
+        }
+        return builder.toString();
+    }
+
+    public static Board parse(String line) throws IllegalArgumentException {
+        String trimmed = line.trim();
+        int separator = trimmed.indexOf(RADIUS_SEPARATOR);
+        if (separator < 0) {
+            throw new IllegalArgumentException("Missing radius in puzzle: " + line);
+        }
+        int radius;
+        try {
+            radius = Integer.parseInt(trimmed.substring(0, separator).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid radius in puzzle: " + line);
+        }
+        if (radius < 0) {
+            throw new IllegalArgumentException("Invalid radius in puzzle: " + line);
+        }
+        if (radius > MAX_RADIUS) {
+            throw new IllegalArgumentException("Radius " + radius + " is larger than the largest supported, " +
+                    MAX_RADIUS);
+        }
+        // The values are counted before the topology is built, so that the
+        // radius of a line can't ask for more than the line itself holds
+        String[] values = trimmed.substring(separator + 1).split(String.valueOf(VALUE_SEPARATOR));
+        if (values.length != getCellCount(radius)) {
+            throw new IllegalArgumentException("Expected " + getCellCount(radius) +
+                    " values for radius " + radius + " but found " + values.length);
+        }
+        Board board = new Board(getTopology(radius));
+        for (int cell = 0; cell < values.length; cell++) {
+            int value;
+            try {
+                value = Integer.parseInt(values[cell].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value in puzzle: " + values[cell]);
+            }
+            if (value == Board.EMPTY_HEX) {
+                continue;
+            }
+            if (value < 1 || value > board.size() || board.contains(value)) {
+                throw new IllegalArgumentException("Invalid or repeated value: " + value);
+            }
+            board.place(cell, value);
+        }
+        return board;
+    }
+}
@@ -0,0 +1,173 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates puzzles that have exactly one solution.</br>
+ * </br>
+ * Every puzzle starts as a random path that fills the whole grid. Clues are
+ * then removed one at a time in random order, and a removal is undone if
+ * the puzzle no longer has a unique solution, or if proving that it still
+ * does takes too long. Several workers generate puzzles in parallel, each
+ * with its own random source, and the puzzles are written one per line in
+ * the format of {@link PuzzleFormat}. Every argument is optional and given
+ * as key=value:
+ * <pre>
+ * java PuzzleGenerator radius=6 count=1000 threads=8 seed=1 steps=20000 out=puzzles.txt
+ * </pre>
+ * With a seed, every worker's puzzles are reproducible, although the order
+ * in which the workers' puzzles are written is not. A puzzle that is the
+ * same as one already written, or a rotated or mirrored copy of one, is
+ * thrown away and generated again, see {@link SolutionCache}.
+ *
+ * @author NadavNV
+ */
+public class PuzzleGenerator {
+    private static final int DEFAULT_RADIUS = 4;
+    private static final int DEFAULT_COUNT = 100;
+    // How many steps a uniqueness check may take before the clue is kept
+    private static final long DEFAULT_STEP_LIMIT = 20000;
+    // How often progress is reported, in milliseconds
+    private static final long REPORT_INTERVAL_MILLIS = 5000;
+    // How many duplicates in a row a worker throws away before writing one
+    // anyway. Small grids don't have many different puzzles.
+    private static final int MAX_DUPLICATES = 100;
+
+    private final BoardTopology topology;
+    private final long stepLimit;
+    // The search contexts of the workers, as every check is on the same
+    // topology
+    private final SearchContextPool contexts = new SearchContextPool();
+
+    public PuzzleGenerator(int radius, long stepLimit) {
+        this.topology = PuzzleFormat.getTopology(radius);
+        this.stepLimit = stepLimit;
+    }
+
+    // Generates a single puzzle with a unique solution.
+    public Board generate(Random random) {
+        Board puzzle = RandomPaths.fill(topology, random);
+        ArrayList<Integer> cells = new ArrayList<>();
+        for (int cell = 0; cell < puzzle.size(); cell++) {
+            cells.add(cell);
+        }
+        Collections.shuffle(cells, random);
+        for (int cell: cells) {
+            int value = puzzle.get(cell);
+            puzzle.clear(cell);
+            // A puzzle needs at least one clue to start from
+            if (puzzle.getNextPlacedValue(Board.EMPTY_HEX) == Board.EMPTY_HEX || !isUnique(puzzle)) {
+                puzzle.place(cell, value);
+            }
+        }
+        return puzzle;
+    }
+
+    // Whether the puzzle has exactly one solution, as far as stepLimit lets
+    // the search tell
+    private boolean isUnique(Board puzzle) {
+        HexGridPuzzle check = new HexGridPuzzle(puzzle);
+        check.setContextPool(contexts);
+        return check.hasUniqueSolution(HexGridPuzzle.Algorithm.PATHFINDING, stepLimit);
+    }
+
+    // Generates count puzzles on the given number of threads, passing each
+    // one to output as soon as it's ready. Output is called by one thread
+    // at a time.
+    public void generate(int count, int threads, Long seed, PuzzleOutput output)
+            throws IOException, InterruptedException {
+        AtomicInteger started = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+        // The canonical forms of the puzzles written so far
+        Set<String> written = ConcurrentHashMap.newKeySet();
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<Void>> results = new ArrayList<>();
+        for (int worker = 0; worker < threads; worker++) {
+            Random random = seed == null ? new Random() : new Random(seed + worker);
+            results.add(workers.submit(() -> {
+                while (started.getAndIncrement() < count) {
+                    Board puzzle = generate(random);
+                    for (int duplicates = 0; duplicates < MAX_DUPLICATES &&
+                            !written.add(SolutionCache.getCanonicalForm(puzzle)); duplicates++) {
+                        puzzle = generate(random);
+                    }
+                    synchronized (output) {
+                        output.write(puzzle);
+                    }
+                    finished.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        workers.shutdown();
+        while (!workers.awaitTermination(REPORT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+            reportRate(finished.get(), start);
+        }
+        for (Future<Void> result: results) {
+            try {
+                result.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        reportRate(finished.get(), start);
+    }
+
+    private static void reportRate(int puzzles, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.format("%d puzzles in %.1f seconds (%.2f puzzles per second)%n",
+                puzzles, seconds, puzzles / seconds);
+    }
+
+    // Receives generated puzzles
+    public interface PuzzleOutput {
+        public void write(Board puzzle) throws IOException;
+    }
+
+    /**
+     * @param args the command line arguments, see the class documentation
+     */
+    public static void main(String[] args) {
+        HashMap<String, String> arguments = new HashMap<>();
+        for (String arg: args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                System.err.println("Arguments must be given as key=value: " + arg);
+                System.exit(1);
+            }
+            arguments.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        int radius = Integer.parseInt(arguments.getOrDefault("radius", "" + DEFAULT_RADIUS));
+        int count = Integer.parseInt(arguments.getOrDefault("count", "" + DEFAULT_COUNT));
+        int threads = Integer.parseInt(arguments.getOrDefault("threads",
+                "" + Runtime.getRuntime().availableProcessors()));
+        long stepLimit = Long.parseLong(arguments.getOrDefault("steps", "" + DEFAULT_STEP_LIMIT));
+        Long seed = arguments.containsKey("seed") ? Long.valueOf(arguments.get("seed")) : null;
+
+        try (Writer writer = arguments.containsKey("out") ?
+                new BufferedWriter(new FileWriter(arguments.get("out"))) :
+                new BufferedWriter(new OutputStreamWriter(System.out))) {
+            new PuzzleGenerator(radius, stepLimit).generate(count, threads, seed, puzzle -> {
+                writer.write(PuzzleFormat.format(puzzle));
+                writer.write(System.lineSeparator());
+            });
+        } catch (IOException | InterruptedException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
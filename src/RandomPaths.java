@@ -0,0 +1,93 @@
+import java.util.*;
+
+/**
+ * Builds random Hamiltonian paths on a grid, that is, completely filled
+ * boards in which every number is adjacent to its predecessor and successor.
+ * These are the solutions that generated puzzles are cut down from.</br>
+ * </br>
+ * The walk follows Warnsdorff's rule, always moving to the empty neighbor
+ * with the fewest empty neighbors of its own and breaking ties at random,
+ * and backtracks when it gets stuck. Walks that take too long are abandoned
+ * and restarted from a new random cell.
+ *
+ * @author NadavNV
+ */
+class RandomPaths {
+    // How many steps a single walk may take before it's restarted
+    private static final int MAX_STEPS_PER_WALK = 100000;
+
+    private final BoardTopology topology;
+    private final Random random;
+    private Board board;
+    private int steps;
+
+    private RandomPaths(BoardTopology topology, Random random) {
+        this.topology = topology;
+        this.random = random;
+    }
+
+    // Returns a full board holding a random path over the given topology.
+    public static Board fill(BoardTopology topology, Random random) {
+        return new RandomPaths(topology, random).fill();
+    }
+
+    private Board fill() {
+        while (true) {
+            board = new Board(topology);
+            steps = 0;
+            int start = random.nextInt(topology.size());
+            board.place(start, 1);
+            if (extend(start, 2)) {
+                return board;
+            }
+        }
+    }
+
+    private boolean extend(int current, int value) {
+        if (value > board.size()) {
+            return true;
+        }
+        if (++steps > MAX_STEPS_PER_WALK) {
+            return false;
+        }
+        int[] candidates = new int[CubeHex.DIRECTION_COUNT];
+        int[] keys = new int[CubeHex.DIRECTION_COUNT];
+        int count = 0;
+        for (int n = topology.getNeighborStart(current); n < topology.getNeighborStart(current + 1); n++) {
+            int neighbor = topology.getNeighbor(n);
+            if (board.isEmpty(neighbor)) {
+                // Fewest onward moves first, with a random tiebreak
+                int key = countEmptyNeighbors(neighbor) * 8 + random.nextInt(8);
+                int i = count++;
+                while (i > 0 && keys[i - 1] > key) {
+                    keys[i] = keys[i - 1];
+                    candidates[i] = candidates[i - 1];
+                    i--;
+                }
+                keys[i] = key;
+                candidates[i] = neighbor;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            board.place(candidates[i], value);
+            if (extend(candidates[i], value + 1)) {
+                return true;
+            }
+            board.clear(candidates[i]);
+            if (steps > MAX_STEPS_PER_WALK) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private int countEmptyNeighbors(int cell) {
+        int count = 0;
+        for (int n = topology.getNeighborStart(cell); n < topology.getNeighborStart(cell + 1); n++) {
+            if (board.isEmpty(topology.getNeighbor(n))) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
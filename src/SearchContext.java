@@ -0,0 +1,189 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+
+/**
+ * Everything a search changes while it works on a puzzle of a given
+ * topology: the board it fills, the pruning and propagation state built on
+ * that board along with the trail of what propagation filled, the table of
+ * states known to have no solution, the solution counts remembered while
+ * counting, and the frames of the search stack. Also the settings of the
+ * search: the move order, the seed that shuffles it, and the trace.</br>
+ * </br>
+ * Setting a context up for a topology is where nearly all of the memory of
+ * a solve is allocated. After that, {@link #reset(Board)} loads another
+ * puzzle of the same topology into it without allocating, so one context
+ * can solve any number of puzzles one after another. The solvers of
+ * {@link HexGridPuzzle} keep no state of their own beyond their progress
+ * through a single solve, and a context serves one solver at a time.
+ * Solves that run at once each need their own context, which is what a
+ * {@link SearchContextPool} hands out.
+ *
+ * @author NadavNV
+ */
+class SearchContext {
+    private final BoardTopology topology;
+    // The board the search fills, which holds a copy of the puzzle
+    private final Board board;
+    private final DeadRegionPruner pruner;
+    private final ClueGapPropagator gaps;
+    private final DomainPropagator domains;
+    // The states known to have no solution. Kept by load, so the tasks of
+    // a parallel search that share a context share what they learned.
+    private final TranspositionTable failed = new TranspositionTable();
+    // The solution counts of finished subproblems, used while counting, and
+    // a subproblem to look them up with without allocating
+    final HashMap<Subproblem, Integer> subproblems = new HashMap<>();
+    final Subproblem probe;
+
+    // The frames of the search stack, see HexGridPuzzle.SearchSolver. Read
+    // and written directly by the solvers.
+    final int[] frameValue;
+    final int[] frameParent;
+    final int[] frameCell;
+    final int[] frameCandidates;
+    final int[] frameCandidateCount;
+    final int[] frameNextCandidate;
+    final int[] candidateKeys = new int[CubeHex.DIRECTION_COUNT];
+    final long[] frameHash;
+    final int[] frameSolutionsBefore;
+    final int[] frameTrail;
+
+    private HexGridPuzzle.MoveOrder order = HexGridPuzzle.MoveOrder.NATURAL;
+    // Null if the cells the order ties stay in order
+    private SplittableRandom random;
+    private SearchTrace trace = SearchTrace.OFF;
+
+    public SearchContext(BoardTopology topology) {
+        this.topology = topology;
+        board = new Board(topology);
+        pruner = new DeadRegionPruner(board);
+        gaps = new ClueGapPropagator(board);
+        domains = new DomainPropagator(board);
+        probe = new Subproblem(topology.getWordCount());
+        int depth = board.size() + 1;
+        frameValue = new int[depth];
+        frameParent = new int[depth];
+        frameCell = new int[depth];
+        frameCandidates = new int[depth * CubeHex.DIRECTION_COUNT];
+        frameCandidateCount = new int[depth];
+        frameNextCandidate = new int[depth];
+        frameHash = new long[depth];
+        frameSolutionsBefore = new int[depth];
+        frameTrail = new int[depth];
+    }
+
+    // Sets up the context for a new puzzle: the board takes the values of
+    // the given one, which must have the same topology, and everything
+    // learned about the last puzzle is forgotten.
+    public void reset(Board puzzle) {
+        failed.clear();
+        subproblems.clear();
+        load(puzzle);
+    }
+
+    // Sets the board to the values of the given one, which must have the
+    // same topology, but keeps the states known to have no solution. For
+    // boards that all extend the same puzzle, such as the tasks of a
+    // parallel search.
+    public void load(Board puzzle) {
+        if (puzzle.getTopology() != topology) {
+            throw new IllegalArgumentException("The board has a different topology");
+        }
+        board.copyFrom(puzzle);
+    }
+
+    // Sets how the next searches order the cells for each value, as
+    // HexGridPuzzle.setMoveOrder and setSeed do, and where their steps are
+    // traced
+    public void configure(HexGridPuzzle.MoveOrder order, long seed, SearchTrace trace) {
+        this.order = order;
+        this.random = seed == 0 ? null : new SplittableRandom(seed);
+        this.trace = trace;
+    }
+
+    public BoardTopology getTopology() {
+        return topology;
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    public DeadRegionPruner getPruner() {
+        return pruner;
+    }
+
+    public ClueGapPropagator getGaps() {
+        return gaps;
+    }
+
+    public DomainPropagator getDomains() {
+        return domains;
+    }
+
+    public TranspositionTable getFailed() {
+        return failed;
+    }
+
+    public HexGridPuzzle.MoveOrder getMoveOrder() {
+        return order;
+    }
+
+    public SplittableRandom getRandom() {
+        return random;
+    }
+
+    public SearchTrace getTrace() {
+        return trace;
+    }
+
+    // Identifies what is left to solve in the middle of a search: which cells
+    // are still empty, where the last value was placed, which value comes
+    // next, and where the values after it that are already placed are.
+    // Everything below the next value is already placed, so these determine
+    // how many ways there are to finish the board. The values after it are
+    // only compared by their hash.
+    static class Subproblem {
+        private final long[] occupied;
+        private int head;
+        private int value;
+        private long placedAbove;
+
+        public Subproblem(int wordCount) {
+            occupied = new long[wordCount];
+        }
+
+        public Subproblem(Subproblem other) {
+            occupied = other.occupied.clone();
+            head = other.head;
+            value = other.value;
+            placedAbove = other.placedAbove;
+        }
+
+        public void set(Board board, int value) {
+            for (int word = 0; word < occupied.length; word++) {
+                occupied[word] = board.getOccupied(word);
+            }
+            this.head = board.getPosition(value - 1);
+            this.value = value;
+            this.placedAbove = board.getPlacementHashAbove(value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj != null && obj.getClass() == this.getClass()) {
+                Subproblem other = (Subproblem) obj;
+                return head == other.head && value == other.value &&
+                       placedAbove == other.placedAbove &&
+                       Arrays.equals(occupied, other.occupied);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Arrays.hashCode(occupied) + head) + value ^ Long.hashCode(placedAbove);
+        }
+    }
+}
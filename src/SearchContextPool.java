@@ -0,0 +1,42 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Keeps the {@link SearchContext}s of finished solves for the next solves of
+ * puzzles with the same topology, so that solving many puzzles sets up only
+ * as many contexts as there are solves running at once.</br>
+ * </br>
+ * Contexts are kept per topology by identity, so puzzles share contexts when
+ * they share a topology, as the puzzles read by {@link PuzzleFormat} do.
+ * Contexts are only kept for a limited number of topologies, so that
+ * puzzles that each bring their own topology don't keep a context each.
+ * Safe to use from several threads.
+ *
+ * @author NadavNV
+ */
+class SearchContextPool {
+    private static final int MAX_TOPOLOGIES = 16;
+
+    private final ConcurrentHashMap<BoardTopology, ConcurrentLinkedQueue<SearchContext>> idle =
+            new ConcurrentHashMap<>();
+
+    // A context for the given topology that no one else is using, set up
+    // for whichever puzzle it was last used for
+    public SearchContext acquire(BoardTopology topology) {
+        ConcurrentLinkedQueue<SearchContext> contexts = idle.get(topology);
+        SearchContext context = contexts != null ? contexts.poll() : null;
+        return context != null ? context : new SearchContext(topology);
+    }
+
+    // Gives back a context that the caller is done with
+    public void release(SearchContext context) {
+        ConcurrentLinkedQueue<SearchContext> contexts = idle.get(context.getTopology());
+        if (contexts == null) {
+            if (idle.size() >= MAX_TOPOLOGIES) {
+                return;
+            }
+            contexts = idle.computeIfAbsent(context.getTopology(), key -> new ConcurrentLinkedQueue<>());
+        }
+        contexts.offer(context);
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Records what a solver is doing, at a given level of detail.</br>
+ * </br>
+ * The level checks are plain final fields, so solvers guard every message
+ * with them and build nothing at all when tracing is off.
+ *
+ * @author NadavNV
+ */
+class SearchTrace implements AutoCloseable {
+    // A trace that records nothing
+    public static final SearchTrace OFF = new SearchTrace(TraceLevel.OFF, null);
+
+    public final boolean summary;
+    public final boolean steps;
+    private final TraceSink sink;
+
+    public SearchTrace(TraceLevel level, TraceSink sink) {
+        this.summary = level.compareTo(TraceLevel.SUMMARY) >= 0;
+        this.steps = level.compareTo(TraceLevel.STEP) >= 0;
+        if (sink == null && summary) {
+            throw new IllegalArgumentException("A trace level of " + level + " requires a sink");
+        }
+        this.sink = sink;
+    }
+
+    public void write(String message) {
+        sink.write(message);
+    }
+
+    @Override
+    public void close() {
+        if (sink != null) {
+            sink.close();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the solutions of puzzles, so that a puzzle that was already
+ * solved, or a rotated or mirrored copy of one, is never solved again.</br>
+ * </br>
+ * Every puzzle is looked up by its canonical form: of the twelve ways to
+ * rotate and mirror it, see {@link CubeHex#transform(int)}, the one whose
+ * values in printing order come first. Solutions are stored in the same
+ * orientation as the canonical form, and turned back to the orientation of
+ * the puzzle they are asked for.</br>
+ * </br>
+ * The cache stops taking new solutions once it holds its maximum number of
+ * entries. Safe to use from several threads.
+ *
+ * @author NadavNV
+ */
+class SolutionCache {
+    private final ConcurrentHashMap<String, Board> solutions = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public SolutionCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    // The symmetry that turns the given board into its canonical form
+    public static int getCanonicalSymmetry(Board board) {
+        int best = 0;
+        for (int symmetry = 1; symmetry < CubeHex.SYMMETRY_COUNT; symmetry++) {
+            if (board.getTopology().hasSymmetry(symmetry) && compareTransformed(board, symmetry, best) < 0) {
+                best = symmetry;
+            }
+        }
+        return best;
+    }
+
+    // Compares the board under two symmetries without building either one,
+    // by going through the cells of the transformed boards in order.
+    private static int compareTransformed(Board board, int first, int second) {
+        BoardTopology topology = board.getTopology();
+        // Mapping a cell back under the inverse of a symmetry gives the cell
+        // of the original board that lands on it.
+        int firstInverse = inverse(first);
+        int secondInverse = inverse(second);
+        for (int cell = 0; cell < board.size(); cell++) {
+            int difference = Integer.compare(board.get(topology.transform(firstInverse, cell)),
+                                             board.get(topology.transform(secondInverse, cell)));
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return 0;
+    }
+
+    // The symmetry that undoes the given one. Reflections undo themselves,
+    // and rotations are undone by rotating the rest of the way around.
+    public static int inverse(int symmetry) {
+        if (symmetry >= CubeHex.DIRECTION_COUNT) {
+            return symmetry;
+        }
+        return (CubeHex.DIRECTION_COUNT - symmetry) % CubeHex.DIRECTION_COUNT;
+    }
+
+    // A copy of the board with every value moved to the cell its cell is
+    // mapped to under the given symmetry.
+    public static Board transform(Board board, int symmetry) {
+        BoardTopology topology = board.getTopology();
+        Board result = new Board(topology);
+        for (int cell = 0; cell < board.size(); cell++) {
+            if (!board.isEmpty(cell)) {
+                result.place(topology.transform(symmetry, cell), board.get(cell));
+            }
+        }
+        return result;
+    }
+
+    // The canonical form of the board, as a line of text in the format of
+    // PuzzleFormat
+    public static String getCanonicalForm(Board board) {
+        return PuzzleFormat.format(transform(board, getCanonicalSymmetry(board)));
+    }
+
+    // The solution of the given puzzle in its own orientation, or null if
+    // it isn't in the cache. Only puzzles on hexagons are cached.
+    public Board get(Board puzzle) {
+        if (!puzzle.getTopology().isHexagon()) {
+            return null;
+        }
+        int symmetry = getCanonicalSymmetry(puzzle);
+        Board solution = solutions.get(PuzzleFormat.format(transform(puzzle, symmetry)));
+        if (solution == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return transform(solution, inverse(symmetry));
+    }
+
+    public void put(Board puzzle, Board solution) {
+        if (solutions.size() >= maxEntries || !puzzle.getTopology().isHexagon()) {
+            return;
+        }
+        int symmetry = getCanonicalSymmetry(puzzle);
+        solutions.putIfAbsent(PuzzleFormat.format(transform(puzzle, symmetry)), transform(solution, symmetry));
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,315 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * What a single solve did: how many nodes it searched, how fast, how often
+ * it backtracked at every depth, which pruning rules cut the search short,
+ * how deep it went, and how much wall clock and CPU time it took.</br>
+ * </br>
+ * Every solver keeps its own metrics in plain fields, so counting costs the
+ * search next to nothing, and a parallel search merges the metrics of its
+ * solvers as they finish. The depth of a node is the value being placed.</br>
+ * </br>
+ * The solve is also reported to Java Flight Recorder, as a start event, an
+ * end event with the totals, and a progress event every
+ * {@value #PROGRESS_INTERVAL} nodes. These cost nothing unless a recording
+ * is running, e.g. with
+ * <pre>
+ * java -XX:StartFlightRecording=filename=solve.jfr -jar HexGridPuzzle.jar
+ * </pre>
+ * The totals are also available as a single line of key=value pairs from
+ * {@link #toString()}, and a {@link ProgressListener} can follow a long
+ * solve as it goes, at the same interval as the progress events.
+ *
+ * @author NadavNV
+ */
+class SolveMetrics {
+    // Told how a solve is doing every PROGRESS_INTERVAL nodes, on the
+    // thread that does the search. Must be quick, as the search waits.
+    interface ProgressListener {
+        // depth is the value being placed, nodes how many were searched so
+        // far, and maxDepth the highest value the search has placed so far
+        void progress(int depth, long nodes, int maxDepth);
+    }
+
+    // The pruning rules that can cut the search short
+    enum Rule {
+        // A placement left empty cells that the path can't reach
+        DEAD_REGION,
+        // A placement left a gap between placed values that can't be bridged
+        CLUE_GAP,
+        // A cell was too far from the next placed value to reach it in time
+        DISTANCE,
+        // A value wasn't next to the value before or after it, which is
+        // already placed
+        ADJACENCY,
+        // A state was already known to have no solution
+        TRANSPOSITION,
+        // Another cell had no other way into the path than taking the value
+        FORCED,
+        // A cell had no value left that it could hold, or a missing value no
+        // cell left to go in
+        DOMAIN
+    }
+
+    // How many nodes are searched between progress events. A power of two.
+    public static final int PROGRESS_INTERVAL = 1 << 16;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = THREADS.isCurrentThreadCpuTimeSupported();
+
+    private final String solverName;
+    private long nodes;
+    // backtracks[depth] is how many placements at that depth were undone
+    private final long[] backtracks;
+    private final long[] pruned = new long[Rule.values().length];
+    private long tableMisses;
+    private int maxDepth;
+    private long startNanos;
+    private long wallNanos;
+    private long startCpuNanos;
+    private long cpuNanos;
+    // Set once the CPU time of some part of the solve couldn't be measured,
+    // as on virtual threads, which makes the total meaningless
+    private boolean cpuTimeUnavailable;
+    private SolveEnd endEvent;
+    private ProgressListener listener;
+
+    // Creates metrics for a solve of a grid with the given number of cells
+    public SolveMetrics(String solverName, int cells) {
+        this.solverName = solverName;
+        this.backtracks = new long[cells + 1];
+    }
+
+    // Starts the clocks and reports the start of the solve. Called on the
+    // thread that does the search.
+    public void start() {
+        SolveStart event = new SolveStart();
+        if (event.isEnabled()) {
+            event.solver = solverName;
+            event.cells = backtracks.length - 1;
+            event.commit();
+        }
+        endEvent = new SolveEnd();
+        endEvent.begin();
+        resume();
+    }
+
+    // Stops the clocks and reports the end of the solve. Called on the
+    // same thread as start.
+    public void finish(boolean solved) {
+        pause();
+        if (endEvent != null && endEvent.shouldCommit()) {
+            endEvent.solver = solverName;
+            endEvent.solved = solved;
+            endEvent.nodes = nodes;
+            endEvent.backtracks = getBacktracks();
+            endEvent.maxDepth = maxDepth;
+            // Shown as N/A
+            endEvent.cpuTime = cpuTimeUnavailable ? Long.MIN_VALUE : cpuNanos;
+            endEvent.commit();
+        }
+        endEvent = null;
+    }
+
+    // Starts the clocks without reporting anything, for a search that is
+    // only a part of a solve.
+    public void resume() {
+        startNanos = System.nanoTime();
+        startCpuNanos = CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+
+    // Stops the clocks. Called on the same thread as resume.
+    public void pause() {
+        wallNanos += System.nanoTime() - startNanos;
+        // -1 when the thread's CPU time can't be measured
+        long endCpuNanos = CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : -1;
+        if (startCpuNanos < 0 || endCpuNanos < 0) {
+            cpuTimeUnavailable = true;
+        } else {
+            cpuNanos += endCpuNanos - startCpuNanos;
+        }
+    }
+
+    // Reports the progress of the solve to the given listener from now on,
+    // or to no one if it's null
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    // Counts a node at the given depth
+    public void node(int depth) {
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+        if ((++nodes & (PROGRESS_INTERVAL - 1)) == 0) {
+            if (listener != null) {
+                listener.progress(depth, nodes, maxDepth);
+            }
+            SolveProgress event = new SolveProgress();
+            if (event.isEnabled()) {
+                event.solver = solverName;
+                event.nodes = nodes;
+                event.depth = depth;
+                event.maxDepth = maxDepth;
+                event.commit();
+            }
+        }
+    }
+
+    // Counts an undone placement at the given depth
+    public void backtrack(int depth) {
+        backtracks[depth]++;
+    }
+
+    public void prune(Rule rule) {
+        pruned[rule.ordinal()]++;
+    }
+
+    // Counts a transposition table lookup that didn't find the state. Hits
+    // are counted as TRANSPOSITION prunes.
+    public void tableMiss() {
+        tableMisses++;
+    }
+
+    // Adds the counts and CPU time of another solve that was part of this
+    // one, e.g. one branch of a parallel search. The wall clock time is
+    // left as it is.
+    public synchronized void merge(SolveMetrics other) {
+        nodes += other.nodes;
+        for (int depth = 0; depth < backtracks.length; depth++) {
+            backtracks[depth] += other.backtracks[depth];
+        }
+        for (int rule = 0; rule < pruned.length; rule++) {
+            pruned[rule] += other.pruned[rule];
+        }
+        tableMisses += other.tableMisses;
+        maxDepth = Math.max(maxDepth, other.maxDepth);
+        cpuNanos += other.cpuNanos;
+        cpuTimeUnavailable |= other.cpuTimeUnavailable;
+    }
+
+    public String getSolverName() {
+        return solverName;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public double getNodesPerSecond() {
+        return wallNanos == 0 ? 0 : nodes * 1e9 / wallNanos;
+    }
+
+    public long getBacktracks(int depth) {
+        return backtracks[depth];
+    }
+
+    // The total of backtracks over every depth
+    public long getBacktracks() {
+        long total = 0;
+        for (long count: backtracks) {
+            total += count;
+        }
+        return total;
+    }
+
+    public long getPruned(Rule rule) {
+        return pruned[rule.ordinal()];
+    }
+
+    public long getTableHits() {
+        return getPruned(Rule.TRANSPOSITION);
+    }
+
+    public long getTableMisses() {
+        return tableMisses;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    // The CPU time of the solve, or -1 if it couldn't be measured
+    public long getCpuNanos() {
+        return cpuTimeUnavailable ? -1 : cpuNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("solver=").append(solverName.replace(' ', '_'))
+               .append(" nodes=").append(nodes)
+               .append(String.format(" nodes_per_second=%.0f", getNodesPerSecond()))
+               .append(" max_depth=").append(maxDepth)
+               .append(String.format(" wall_ms=%.3f", wallNanos / 1e6))
+               .append(cpuTimeUnavailable ? " cpu_ms=unavailable" : String.format(" cpu_ms=%.3f", cpuNanos / 1e6))
+               .append(" table_misses=").append(tableMisses);
+        for (Rule rule: Rule.values()) {
+            builder.append(" pruned_").append(rule.name().toLowerCase()).append('=').append(getPruned(rule));
+        }
+        builder.append(" backtracks=").append(getBacktracks());
+        builder.append(" backtracks_by_depth=");
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            if (depth > 1) {
+                builder.append(',');
+            }
+            builder.append(backtracks[depth]);
+        }
+        return builder.toString();
+    }
+
+    @Name("HexGridPuzzle.SolveStart")
+    @Label("Solve Start")
+    @Category("HexGridPuzzle")
+    static class SolveStart extends Event {
+        @Label("Solver")
+        String solver;
+        @Label("Cells")
+        int cells;
+    }
+
+    @Name("HexGridPuzzle.SolveEnd")
+    @Label("Solve End")
+    @Category("HexGridPuzzle")
+    @Description("A finished solve, lasting from the start of the search to its end")
+    static class SolveEnd extends Event {
+        @Label("Solver")
+        String solver;
+        @Label("Solved")
+        boolean solved;
+        @Label("Nodes")
+        long nodes;
+        @Label("Backtracks")
+        long backtracks;
+        @Label("Max Depth")
+        int maxDepth;
+        @Label("CPU Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long cpuTime;
+    }
+
+    @Name("HexGridPuzzle.SolveProgress")
+    @Label("Solve Progress")
+    @Category("HexGridPuzzle")
+    static class SolveProgress extends Event {
+        @Label("Solver")
+        String solver;
+        @Label("Nodes")
+        long nodes;
+        @Label("Depth")
+        int depth;
+        @Label("Max Depth")
+        int maxDepth;
+    }
+}
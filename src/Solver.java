@@ -1,8 +1,23 @@
 /**
+ * Searches for solutions of a puzzle on the board of its
+ * {@link SearchContext}.</br>
+ * </br>
+ * Everything the search changes is kept in the context, so a solver is
+ * cheap to create for a single solve, and several solvers can run at once
+ * as long as each has a context of its own.
  *
  * @author NadavNV
  */
 public interface Solver {
+    // Solves the board of the context from value i onwards, leaving the
+    // solution there
     public boolean solve(int i);
+    // The number of solutions from value i onwards, counting no further
+    // than limit
+    public int countSolutions(int i, int limit);
     public String getName();
+    // What this solver has done so far
+    public SolveMetrics getMetrics();
+    // Where this solver keeps the state of its search
+    public SearchContext getContext();
 }
@@ -0,0 +1,217 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Compares the solving algorithms, and the orders in which they try cells,
+ * on the default puzzle and on generated puzzles of several radii and clue
+ * densities.</br>
+ * </br>
+ * For every combination it reports the average solve time, the number of
+ * recursive steps, the cost of a single step, how much memory the solve
+ * allocated, and how many transposition table lookups found a state that
+ * was already known to fail. The generated puzzles depend only on the seed, so runs with the
+ * same arguments can be compared against each other. Every argument is
+ * optional and given as key=value:
+ * <pre>
+ * java SolverBenchmark radii=3-8 clues=0.5,0.35,0.2 orders=natural,forced puzzles=3 warmup=2 iterations=5 timeout=2000 seed=1
+ * </pre>
+ * Solves that run past the timeout (in milliseconds) give up. They are kept
+ * as censored samples: their time and steps so far count towards the
+ * averages, which are then only lower bounds and marked with a "&gt;", and a
+ * median that falls on one is reported as "&gt;" the timeout. The orders are
+ * those of {@link HexGridPuzzle.MoveOrder}, and every algorithm is measured
+ * with each of them.
+ *
+ * @author NadavNV
+ */
+public class SolverBenchmark {
+    private static final int DEFAULT_MIN_RADIUS = 3;
+    private static final int DEFAULT_MAX_RADIUS = 8;
+    private static final String DEFAULT_CLUE_DENSITIES = "0.5,0.35,0.2";
+    private static final String DEFAULT_ORDERS = "natural";
+    private static final int DEFAULT_PUZZLES = 3;
+    private static final int DEFAULT_WARMUP = 2;
+    private static final int DEFAULT_ITERATIONS = 5;
+    private static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+    private static final long DEFAULT_SEED = 1;
+
+    // A set of puzzles measured together
+    private static class Case {
+        private final String name;
+        // Shared by the puzzles of the case, so that they share contexts
+        private final BoardTopology topology;
+        private final List<Map<CubeHex, Integer>> puzzles;
+
+        public Case(String name, int radius, List<Map<CubeHex, Integer>> puzzles) {
+            this.name = name;
+            this.topology = new BoardTopology(radius);
+            this.puzzles = puzzles;
+        }
+    }
+
+    // The measurements of one algorithm on one case
+    private static class Result {
+        private int solves;
+        private int timeouts;
+        // The time of every solve, with Long.MAX_VALUE for those that timed
+        // out, since all that is known about them is that they would have
+        // taken longer
+        private final ArrayList<Long> samples = new ArrayList<>();
+        private long nanos;
+        private long steps;
+        private long allocatedBytes;
+        private long tableHits;
+        private long tableLookups;
+    }
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final long timeoutMillis;
+    // Every solve after the first of a topology reuses a context, so the
+    // allocation measured is that of the search itself
+    private final SearchContextPool contexts = new SearchContextPool();
+
+    private SolverBenchmark(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    // Generates a puzzle by filling the grid with a random path and keeping
+    // a random subset of the cells as clues.
+    static Map<CubeHex, Integer> generatePuzzle(int radius, double clueDensity, Random random) {
+        Board solution = RandomPaths.fill(new BoardTopology(radius), random);
+        BoardTopology topology = solution.getTopology();
+        ArrayList<Integer> cells = new ArrayList<>();
+        for (int cell = 0; cell < topology.size(); cell++) {
+            cells.add(cell);
+        }
+        Collections.shuffle(cells, random);
+        int clueCount = Math.max(1, (int) Math.round(clueDensity * topology.size()));
+        HashMap<CubeHex, Integer> clues = new HashMap<>();
+        for (int cell: cells.subList(0, clueCount)) {
+            clues.put(topology.getHex(cell), solution.get(cell));
+        }
+        return clues;
+    }
+
+    // Bytes allocated so far by the current thread, or -1 if the JVM
+    // can't tell.
+    private long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    private Result measure(HexGridPuzzle.Algorithm algorithm, HexGridPuzzle.MoveOrder order,
+            Case benchmarkCase, int iterations) {
+        Result result = new Result();
+        for (int i = 0; i < iterations; i++) {
+            for (Map<CubeHex, Integer> state: benchmarkCase.puzzles) {
+                HexGridPuzzle puzzle = new HexGridPuzzle(benchmarkCase.topology, state);
+                puzzle.setMoveOrder(order);
+                puzzle.setContextPool(contexts);
+                long allocatedBefore = allocatedBytes();
+                long start = System.nanoTime();
+                HexGridPuzzle.Outcome outcome = puzzle.solve(algorithm, new AtomicBoolean(), timeoutMillis, null);
+                long elapsed = System.nanoTime() - start;
+                long allocated = allocatedBytes() - allocatedBefore;
+                if (outcome == HexGridPuzzle.Outcome.TIMED_OUT) {
+                    result.timeouts++;
+                    result.samples.add(Long.MAX_VALUE);
+                } else {
+                    result.solves++;
+                    result.samples.add(elapsed);
+                }
+                result.nanos += elapsed;
+                SolveMetrics metrics = puzzle.getMetrics();
+                result.steps += metrics.getNodes();
+                result.tableHits += metrics.getTableHits();
+                result.tableLookups += metrics.getTableHits() + metrics.getTableMisses();
+                result.allocatedBytes += allocated;
+            }
+        }
+        return result;
+    }
+
+    private void run(List<Case> cases, List<HexGridPuzzle.MoveOrder> orders, int warmup, int iterations) {
+        System.out.format("%-22s %-12s %-10s %8s %12s %12s %12s %10s %14s %10s %8s%n",
+                "case", "algorithm", "order", "solved", "ms/solve", "median ms", "steps/solve",
+                "ns/step", "bytes/solve", "MB/s", "tt hits");
+        for (Case benchmarkCase: cases) {
+            for (HexGridPuzzle.Algorithm algorithm: HexGridPuzzle.Algorithm.values()) {
+                for (HexGridPuzzle.MoveOrder order: orders) {
+                    measure(algorithm, order, benchmarkCase, warmup);
+                    Result result = measure(algorithm, order, benchmarkCase, iterations);
+                    int samples = result.samples.size();
+                    if (samples == 0) {
+                        continue;
+                    }
+                    String solved = result.solves + "/" + samples;
+                    // Averages over censored samples are lower bounds
+                    String bound = result.timeouts > 0 ? ">" : "";
+                    Collections.sort(result.samples);
+                    long median = result.samples.get(samples / 2);
+                    double seconds = result.nanos / 1e9;
+                    System.out.format("%-22s %-12s %-10s %8s %12s %12s %12s %10.1f %14d %10.1f %7.1f%%%n",
+                            benchmarkCase.name, algorithm, order, solved,
+                            bound + String.format("%.3f", result.nanos / 1e6 / samples),
+                            median == Long.MAX_VALUE ? ">" + timeoutMillis : String.format("%.3f", median / 1e6),
+                            bound + result.steps / samples,
+                            (double) result.nanos / Math.max(1, result.steps),
+                            result.allocatedBytes / samples,
+                            seconds > 0 ? result.allocatedBytes / 1e6 / seconds : 0,
+                            100.0 * result.tableHits / Math.max(1, result.tableLookups));
+                }
+            }
+        }
+    }
+
+    private static Map<String, String> parseArguments(String[] args) {
+        HashMap<String, String> arguments = new HashMap<>();
+        for (String arg: args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Arguments must be given as key=value: " + arg);
+            }
+            arguments.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return arguments;
+    }
+
+    /**
+     * @param args the command line arguments, see the class documentation
+     */
+    public static void main(String[] args) {
+        Map<String, String> arguments = parseArguments(args);
+        String[] radii = arguments.getOrDefault("radii",
+                DEFAULT_MIN_RADIUS + "-" + DEFAULT_MAX_RADIUS).split("-");
+        int minRadius = Integer.parseInt(radii[0]);
+        int maxRadius = Integer.parseInt(radii[radii.length - 1]);
+        String[] densities = arguments.getOrDefault("clues", DEFAULT_CLUE_DENSITIES).split(",");
+        ArrayList<HexGridPuzzle.MoveOrder> orders = new ArrayList<>();
+        for (String order: arguments.getOrDefault("orders", DEFAULT_ORDERS).split(",")) {
+            orders.add(HexGridPuzzle.MoveOrder.valueOf(order.toUpperCase()));
+        }
+        int puzzles = Integer.parseInt(arguments.getOrDefault("puzzles", "" + DEFAULT_PUZZLES));
+        int warmup = Integer.parseInt(arguments.getOrDefault("warmup", "" + DEFAULT_WARMUP));
+        int iterations = Integer.parseInt(arguments.getOrDefault("iterations", "" + DEFAULT_ITERATIONS));
+        long timeout = Long.parseLong(arguments.getOrDefault("timeout", "" + DEFAULT_TIMEOUT_MILLIS));
+        Random random = new Random(Long.parseLong(arguments.getOrDefault("seed", "" + DEFAULT_SEED)));
+
+        ArrayList<Case> cases = new ArrayList<>();
+        cases.add(new Case("default", HexGridPuzzle.DEFAULT_MAX_RADIUS,
+                Collections.singletonList(HexGridPuzzle.getDefaultInitialState())));
+        for (int radius = minRadius; radius <= maxRadius; radius++) {
+            for (String density: densities) {
+                double clueDensity = Double.parseDouble(density);
+                ArrayList<Map<CubeHex, Integer>> states = new ArrayList<>();
+                for (int i = 0; i < puzzles; i++) {
+                    states.add(generatePuzzle(radius, clueDensity, random));
+                }
+                cases.add(new Case("r" + radius + " clues=" + density, radius, states));
+            }
+        }
+        new SolverBenchmark(timeout).run(cases, orders, warmup, iterations);
+    }
+}
@@ -0,0 +1,262 @@
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Races several solver configurations on the same puzzle and keeps the
+ * first one to finish.</br>
+ * </br>
+ * Which algorithm and move order does best varies from puzzle to puzzle,
+ * and a solver that picks a bad cell early can search for a long time
+ * before it backs out of it. Every entry of the portfolio is an algorithm,
+ * a {@link HexGridPuzzle.MoveOrder} and a seed that shuffles the cells the
+ * order ties, and a race solves a copy of the puzzle with every entry at
+ * once, each on its own thread and its own board. The first entry to find
+ * a solution, or to prove there is none, wins: the others are cancelled,
+ * the race waits for them to stop so that their contexts are back in the
+ * pool, and the winner's result is copied back onto the puzzle. The
+ * portfolio counts how often each entry won, so that the entries can be
+ * tuned later.</br>
+ * </br>
+ * The racers run on virtual threads when the runtime has them, and on
+ * platform threads otherwise. Entries are written as
+ * algorithm/order/seed, e.g. pathfinding/warnsdorff/0, where the seed may
+ * be left out. Safe to use from several threads.
+ *
+ * @author NadavNV
+ */
+class SolverPortfolio implements AutoCloseable {
+    // How often a race looks at whether its caller cancelled it
+    private static final long CANCEL_CHECK_MILLIS = 10;
+    // The entries that the name "default" stands for
+    static final String DEFAULT = "default";
+    private static final List<Entry> DEFAULT_ENTRIES = Arrays.asList(
+            new Entry(HexGridPuzzle.Algorithm.PATHFINDING, HexGridPuzzle.MoveOrder.WARNSDORFF, 0),
+            new Entry(HexGridPuzzle.Algorithm.DFS, HexGridPuzzle.MoveOrder.FORCED, 0),
+            new Entry(HexGridPuzzle.Algorithm.GAPS, HexGridPuzzle.MoveOrder.DISTANCE, 0),
+            new Entry(HexGridPuzzle.Algorithm.PATHFINDING, HexGridPuzzle.MoveOrder.FORCED, 1));
+
+    private final List<Entry> entries;
+    // How many races each entry won, in the order of the entries
+    private final LongAdder[] wins;
+    private final ExecutorService racers;
+
+    // One solver configuration of the portfolio
+    static final class Entry {
+        private final HexGridPuzzle.Algorithm algorithm;
+        private final HexGridPuzzle.MoveOrder order;
+        private final long seed;
+
+        public Entry(HexGridPuzzle.Algorithm algorithm, HexGridPuzzle.MoveOrder order, long seed) {
+            this.algorithm = algorithm;
+            this.order = order;
+            this.seed = seed;
+        }
+
+        // Reads an entry written as algorithm/order or algorithm/order/seed
+        public static Entry parse(String entry) throws IllegalArgumentException {
+            String[] parts = entry.trim().split("/");
+            if (parts.length < 2 || parts.length > 3) {
+                throw new IllegalArgumentException("Portfolio entries are algorithm/order/seed: " + entry);
+            }
+            try {
+                return new Entry(HexGridPuzzle.Algorithm.valueOf(parts[0].toUpperCase()),
+                        HexGridPuzzle.MoveOrder.valueOf(parts[1].toUpperCase()),
+                        parts.length == 3 ? Long.parseLong(parts[2]) : 0);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid portfolio entry: " + entry);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return algorithm.name().toLowerCase() + "/" + order.name().toLowerCase() + "/" + seed;
+        }
+    }
+
+    // The outcome of a race, and the entry that won it, if any
+    static final class Result {
+        private final HexGridPuzzle.Outcome outcome;
+        private final Entry winner;
+
+        private Result(HexGridPuzzle.Outcome outcome, Entry winner) {
+            this.outcome = outcome;
+            this.winner = winner;
+        }
+
+        public HexGridPuzzle.Outcome getOutcome() {
+            return outcome;
+        }
+
+        // The entry that solved the puzzle or proved it unsolvable, or null
+        // if every entry timed out or the race was cancelled
+        public Entry getWinner() {
+            return winner;
+        }
+    }
+
+    public SolverPortfolio() {
+        this(DEFAULT_ENTRIES);
+    }
+
+    public SolverPortfolio(List<Entry> entries) throws IllegalArgumentException {
+        if (entries.isEmpty()) {
+            throw new IllegalArgumentException("A portfolio needs at least one entry");
+        }
+        this.entries = new ArrayList<>(entries);
+        wins = new LongAdder[entries.size()];
+        for (int i = 0; i < wins.length; i++) {
+            wins[i] = new LongAdder();
+        }
+        racers = newRacerPool();
+    }
+
+    // Reads a comma separated list of entries, or "default" for the
+    // default entries.
+    public static SolverPortfolio parse(String entries) throws IllegalArgumentException {
+        if (entries.equalsIgnoreCase(DEFAULT)) {
+            return new SolverPortfolio();
+        }
+        ArrayList<Entry> parsed = new ArrayList<>();
+        for (String entry: entries.split(",")) {
+            parsed.add(Entry.parse(entry));
+        }
+        return new SolverPortfolio(parsed);
+    }
+
+    // A virtual thread per racer if the runtime has them, which is found
+    // by reflection so that this still builds and runs on older ones.
+    // Otherwise a platform thread per racer, reused between races. The
+    // threads are daemons, so a race that is still winding down doesn't
+    // keep the program running.
+    private static ExecutorService newRacerPool() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "portfolio-racer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // Races every entry on a copy of the puzzle, giving up once cancelled
+    // is set or once timeoutMillis have passed, unless that's 0. The winner's
+    // metrics, and its solution if it found one, are copied to the puzzle.
+    // Without a winner, the puzzle gets the metrics of all the racers
+    // together.
+    public Result race(HexGridPuzzle puzzle, AtomicBoolean cancelled, long timeoutMillis) {
+        // Stops the racers, which never see the caller's flag themselves
+        AtomicBoolean stop = new AtomicBoolean();
+        CompletionService<Integer> finished = new ExecutorCompletionService<>(racers);
+        HexGridPuzzle[] copies = new HexGridPuzzle[entries.size()];
+        HexGridPuzzle.Outcome[] outcomes = new HexGridPuzzle.Outcome[entries.size()];
+        for (int i = 0; i < copies.length; i++) {
+            Entry entry = entries.get(i);
+            copies[i] = new HexGridPuzzle(puzzle.getBoard());
+            copies[i].setMoveOrder(entry.order);
+            copies[i].setSeed(entry.seed);
+            copies[i].setContextPool(puzzle.getContextPool());
+            int index = i;
+            finished.submit(() -> {
+                outcomes[index] = copies[index].solve(entry.algorithm, stop, timeoutMillis, null);
+                return index;
+            });
+        }
+        int winner = -1;
+        boolean timedOut = false;
+        boolean interrupted = false;
+        int running = copies.length;
+        try {
+            while (running > 0 && winner < 0) {
+                Future<Integer> done = finished.poll(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    if (cancelled.get()) {
+                        stop.set(true);
+                    }
+                    continue;
+                }
+                running--;
+                int index = done.get();
+                if (outcomes[index] == HexGridPuzzle.Outcome.SOLVED ||
+                        outcomes[index] == HexGridPuzzle.Outcome.UNSOLVABLE) {
+                    winner = index;
+                } else if (outcomes[index] == HexGridPuzzle.Outcome.TIMED_OUT) {
+                    timedOut = true;
+                }
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("A portfolio entry failed", e.getCause());
+        } finally {
+            stop.set(true);
+            // The losers still hold their pooled contexts and boards, so
+            // they have to be done before the race is
+            awaitRacers(finished, running);
+        }
+        if (winner >= 0) {
+            wins[winner].increment();
+            HexGridPuzzle.Outcome outcome = outcomes[winner];
+            puzzle.adopt(copies[winner].getMetrics(),
+                    outcome == HexGridPuzzle.Outcome.SOLVED ? copies[winner].getBoard() : null);
+            return new Result(outcome, entries.get(winner));
+        }
+        // Every racer is done, so their metrics can be read
+        SolveMetrics total = new SolveMetrics("Portfolio", puzzle.getBoard().size());
+        for (HexGridPuzzle copy: copies) {
+            total.merge(copy.getMetrics());
+        }
+        puzzle.adopt(total, null);
+        return new Result(timedOut && !cancelled.get() && !interrupted ?
+                HexGridPuzzle.Outcome.TIMED_OUT : HexGridPuzzle.Outcome.CANCELLED, null);
+    }
+
+    // Waits for the given number of racers that are still running to see
+    // the stop flag and finish. Being interrupted doesn't cut the wait
+    // short, since they stop within a few nodes, but is passed on.
+    private static void awaitRacers(CompletionService<Integer> finished, int running) {
+        boolean interrupted = false;
+        while (running > 0) {
+            try {
+                finished.take();
+                running--;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // How many races each entry won so far, in the order of the entries
+    public Map<Entry, Long> getWins() {
+        LinkedHashMap<Entry, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < wins.length; i++) {
+            result.put(entries.get(i), wins[i].sum());
+        }
+        return result;
+    }
+
+    // Stops the racers of any race that is still winding down
+    @Override
+    public void close() {
+        racers.shutdownNow();
+    }
+}
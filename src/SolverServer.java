@@ -0,0 +1,329 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a warm solver running and answers puzzles sent to it over HTTP on
+ * the loopback interface, so that a pipeline doesn't pay for starting a JVM
+ * and warming it up for every batch.</br>
+ * </br>
+ * A POST to /solve carries puzzles one per line in the format of
+ * {@link PuzzleFormat}, and is answered with one result line per puzzle in
+ * the same order, as {@link BatchSolver} writes them. Puzzles are queued
+ * per client, named by the client query parameter or else by the address
+ * the request came from, and the workers take from the clients in turn, so
+ * a client that sends a large batch doesn't hold up the others. A GET to
+ * /stats is answered with a single line of key=value pairs: the puzzles
+ * waiting and being solved, how many were answered with each outcome, and
+ * how long they waited and took. For example
+ * <pre>
+ * curl --data-binary @puzzles.txt "http://localhost:8765/solve?client=pipeline"
+ * curl http://localhost:8765/stats
+ * </pre>
+ * Every argument is optional and given as key=value:
+ * <pre>
+ * java SolverServer port=8765 threads=8 algorithm=pathfinding order=natural timeout=10000 cache=100000 trace=traces portfolio=default warmup=20
+ * </pre>
+ * The arguments mean the same as those of BatchSolver. Before it starts
+ * listening, the server solves the default puzzle warmup times so that the
+ * first requests run compiled code. Topologies are built once per radius
+ * and shared by every puzzle of that radius, see
+ * {@link PuzzleFormat#getTopology(int)}. A line whose radius is above
+ * {@link PuzzleFormat#MAX_RADIUS}, or whose values don't fill a hexagon of
+ * its radius, is answered with an error line before anything is built for
+ * it, and so is a puzzle whose solve fails in any other way.
+ *
+ * @author NadavNV
+ */
+public class SolverServer {
+    private static final int DEFAULT_PORT = 8765;
+    private static final int DEFAULT_CACHE_SIZE = 100000;
+    private static final int DEFAULT_WARMUP = 20;
+
+    private final BatchSolver solver;
+    private final int threads;
+    private final FairQueue queue = new FairQueue();
+    private HttpServer server;
+    private ExecutorService workers;
+    private ExecutorService handlers;
+
+    // Statistics since the server started
+    private final AtomicInteger running = new AtomicInteger();
+    private final ConcurrentHashMap<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+    private final LongAdder answered = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder solveNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong maxSolveNanos = new AtomicLong();
+
+    public SolverServer(BatchSolver solver, int threads) {
+        this.solver = solver;
+        this.threads = threads;
+    }
+
+    // Starts listening on the given port of the loopback interface, or on
+    // any free port if it's 0. Returns the port.
+    public int start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/solve", this::handleSolve);
+        server.createContext("/stats", this::handleStats);
+        // Requests wait for their puzzles to be solved, so every request
+        // needs a thread of its own
+        handlers = Executors.newCachedThreadPool();
+        server.setExecutor(handlers);
+        workers = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            workers.submit(this::work);
+        }
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    // Stops listening and abandons the puzzles that are still queued
+    public void stop() {
+        server.stop(0);
+        workers.shutdownNow();
+        handlers.shutdownNow();
+    }
+
+    // Takes puzzles from the queue and solves them until interrupted. Every
+    // job taken is completed, even when solving it throws an Error such as
+    // running out of memory, so that no request waits for it forever.
+    private void work() {
+        try {
+            while (true) {
+                Job job = queue.take();
+                try {
+                    job.result.complete(solve(job));
+                } catch (Throwable e) {
+                    job.result.completeExceptionally(e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String solve(Job job) {
+        long start = System.nanoTime();
+        record(waitNanos, maxWaitNanos, start - job.queued);
+        running.incrementAndGet();
+        String result;
+        try {
+            result = solver.solve(job.line);
+        } catch (Throwable e) {
+            result = "error 0.000 " + e;
+        } finally {
+            running.decrementAndGet();
+        }
+        record(solveNanos, maxSolveNanos, System.nanoTime() - start);
+        // The outcome is the first word of the result line
+        outcomes.computeIfAbsent(result.substring(0, result.indexOf(' ')), outcome -> new LongAdder())
+                .increment();
+        answered.increment();
+        return result;
+    }
+
+    private static void record(LongAdder total, AtomicLong max, long nanos) {
+        total.add(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    private void handleSolve(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "Puzzles must be sent with POST" + System.lineSeparator());
+            return;
+        }
+        String client = getClient(exchange);
+        ArrayList<Job> jobs = new ArrayList<>();
+        try (BufferedReader input = new BufferedReader(
+                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = input.readLine()) != null) {
+                if (PuzzleFormat.isPuzzle(line)) {
+                    Job job = new Job(line);
+                    jobs.add(job);
+                    queue.add(client, job);
+                }
+            }
+        }
+        StringBuilder response = new StringBuilder();
+        try {
+            for (Job job: jobs) {
+                try {
+                    response.append(job.result.get());
+                } catch (ExecutionException e) {
+                    response.append("error 0.000 ").append(e.getCause());
+                }
+                response.append(System.lineSeparator());
+            }
+        } catch (InterruptedException e) {
+            respond(exchange, 503, "The server is shutting down" + System.lineSeparator());
+            return;
+        }
+        respond(exchange, 200, response.toString());
+    }
+
+    // The client named in the query, or else the address of the request
+    private static String getClient(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null) {
+            for (String parameter: query.split("&")) {
+                if (parameter.startsWith("client=")) {
+                    return parameter.substring("client=".length());
+                }
+            }
+        }
+        return exchange.getRemoteAddress().getAddress().getHostAddress();
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, getStats() + System.lineSeparator());
+    }
+
+    // The statistics as a single line of key=value pairs
+    public String getStats() {
+        long count = answered.sum();
+        StringBuilder builder = new StringBuilder();
+        builder.append("queued=").append(queue.size())
+               .append(" running=").append(running.get())
+               .append(" answered=").append(count);
+        for (String outcome: new TreeSet<>(outcomes.keySet())) {
+            builder.append(' ').append(outcome).append('=').append(outcomes.get(outcome).sum());
+        }
+        builder.append(String.format(" mean_wait_ms=%.3f max_wait_ms=%.3f mean_solve_ms=%.3f max_solve_ms=%.3f",
+                count == 0 ? 0 : waitNanos.sum() / 1e6 / count, maxWaitNanos.get() / 1e6,
+                count == 0 ? 0 : solveNanos.sum() / 1e6 / count, maxSolveNanos.get() / 1e6));
+        builder.append(" cache_hits=").append(solver.getCacheHits());
+        return builder.toString();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    // Solves the default puzzle the given number of times, so that the
+    // search is compiled before the first request comes in
+    private static void warmUp(HexGridPuzzle.Algorithm algorithm, HexGridPuzzle.MoveOrder order, int times) {
+        for (int i = 0; i < times; i++) {
+            HexGridPuzzle puzzle = new HexGridPuzzle(HexGridPuzzle.DEFAULT_MAX_RADIUS,
+                    HexGridPuzzle.getDefaultInitialState());
+            puzzle.setMoveOrder(order);
+            puzzle.solve(algorithm, new AtomicBoolean(), 0, null);
+        }
+    }
+
+    // A puzzle waiting to be solved
+    private static class Job {
+        private final String line;
+        private final long queued = System.nanoTime();
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        public Job(String line) {
+            this.line = line;
+        }
+    }
+
+    /*
+     * The puzzles of every client in the order they came, and the clients
+     * that have puzzles waiting in the order they are served. A client is
+     * moved to the back whenever one of its puzzles is taken.
+     */
+    private static class FairQueue {
+        private final LinkedHashMap<String, ArrayDeque<Job>> clients = new LinkedHashMap<>();
+        private int size;
+
+        public synchronized void add(String client, Job job) {
+            clients.computeIfAbsent(client, name -> new ArrayDeque<>()).add(job);
+            size++;
+            notify();
+        }
+
+        // Waits for a puzzle and takes the next one of the client whose turn
+        // it is
+        public synchronized Job take() throws InterruptedException {
+            while (clients.isEmpty()) {
+                wait();
+            }
+            Iterator<Map.Entry<String, ArrayDeque<Job>>> first = clients.entrySet().iterator();
+            Map.Entry<String, ArrayDeque<Job>> client = first.next();
+            first.remove();
+            Job job = client.getValue().poll();
+            if (!client.getValue().isEmpty()) {
+                clients.put(client.getKey(), client.getValue());
+            }
+            size--;
+            return job;
+        }
+
+        public synchronized int size() {
+            return size;
+        }
+    }
+
+    /**
+     * @param args the command line arguments, see the class documentation
+     */
+    public static void main(String[] args) {
+        HashMap<String, String> arguments = new HashMap<>();
+        for (String arg: args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                System.err.println("Arguments must be given as key=value: " + arg);
+                System.exit(1);
+            }
+            arguments.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        int port = Integer.parseInt(arguments.getOrDefault("port", "" + DEFAULT_PORT));
+        int threads = Integer.parseInt(arguments.getOrDefault("threads",
+                "" + Runtime.getRuntime().availableProcessors()));
+        HexGridPuzzle.Algorithm algorithm = HexGridPuzzle.Algorithm.valueOf(
+                arguments.getOrDefault("algorithm", "pathfinding").toUpperCase());
+        HexGridPuzzle.MoveOrder order = HexGridPuzzle.MoveOrder.valueOf(
+                arguments.getOrDefault("order", "natural").toUpperCase());
+        long timeout = Long.parseLong(arguments.getOrDefault("timeout", "0"));
+        int cacheSize = Integer.parseInt(arguments.getOrDefault("cache", "" + DEFAULT_CACHE_SIZE));
+        int warmup = Integer.parseInt(arguments.getOrDefault("warmup", "" + DEFAULT_WARMUP));
+
+        warmUp(algorithm, order, warmup);
+        BatchSolver solver = new BatchSolver(algorithm, order, threads, timeout, cacheSize);
+        if (arguments.containsKey("trace")) {
+            solver.setTraceDirectory(Paths.get(arguments.get("trace")));
+        }
+        if (arguments.containsKey("portfolio")) {
+            // Lives as long as the server, so it's never closed
+            solver.setPortfolio(SolverPortfolio.parse(arguments.get("portfolio")));
+        }
+        SolverServer server = new SolverServer(solver, threads);
+        try {
+            port = server.start(port);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        System.err.println("Listening on http://localhost:" + port + "/solve with " + threads + " workers");
+    }
+}
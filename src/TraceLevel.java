@@ -0,0 +1,13 @@
+/**
+ * How much of a search gets written to the trace.
+ *
+ * @author NadavNV
+ */
+enum TraceLevel {
+    // Nothing is traced
+    OFF,
+    // Only the start and outcome of a solve
+    SUMMARY,
+    // Every placement and undo, along with the resulting grid
+    STEP
+}
@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Reads back a trace written by {@link BinaryTraceWriter}, to rebuild the
+ * board as it was after any event and to gather statistics about the
+ * search, long after it ran.</br>
+ * </br>
+ * The events are read through memory mapped windows of the file, so traces
+ * far larger than the heap can be replayed, and the events of a window are
+ * only paged in as they are read. Given only a trace, the statistics are
+ * printed; given an event number as well, the board after that many events
+ * is printed:
+ * <pre>
+ * java TraceReplay search.trace
+ * java TraceReplay search.trace at=125000
+ * </pre>
+ *
+ * @author NadavNV
+ */
+public class TraceReplay implements AutoCloseable {
+    // How many events are mapped at a time
+    private static final int WINDOW_EVENTS = 1 << 24;
+    // How many of the values that were cleared most often are reported
+    private static final int HOT_VALUES = 10;
+
+    private final FileChannel channel;
+    private final BoardTopology topology;
+    private final Board initialState;
+    // Where the first event starts
+    private final long eventsStart;
+    private final long eventCount;
+    // The window of events currently mapped, and the first event in it
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    public TraceReplay(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(3 * Integer.BYTES);
+        readFully(header, 0);
+        if (header.getInt(0) != BinaryTraceWriter.MAGIC) {
+            throw new IOException(path + " is not a search trace");
+        }
+        if (header.getInt(Integer.BYTES) != BinaryTraceWriter.VERSION) {
+            throw new IOException("Unsupported trace version " + header.getInt(Integer.BYTES));
+        }
+        int cells = header.getInt(2 * Integer.BYTES);
+        ByteBuffer cellData = ByteBuffer.allocate(cells * 3 * Integer.BYTES);
+        readFully(cellData, header.capacity());
+        ArrayList<CubeHex> shape = new ArrayList<>();
+        for (int cell = 0; cell < cells; cell++) {
+            int x = cellData.getInt(cell * 3 * Integer.BYTES);
+            int z = cellData.getInt((cell * 3 + 1) * Integer.BYTES);
+            shape.add(new CubeHex(x, -x - z, z));
+        }
+        // The cells were written in index order, which the topology rebuilds
+        topology = new BoardTopology(shape);
+        initialState = new Board(topology);
+        for (int cell = 0; cell < cells; cell++) {
+            int value = cellData.getInt((cell * 3 + 2) * Integer.BYTES);
+            if (value != Board.EMPTY_HEX) {
+                initialState.place(cell, value);
+            }
+        }
+        eventsStart = header.capacity() + cellData.capacity();
+        eventCount = (channel.size() - eventsStart) / BinaryTraceWriter.RECORD_SIZE;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("The trace ends in the middle of its header");
+            }
+        }
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public Board getInitialState() {
+        return new Board(initialState);
+    }
+
+    // The board after the given number of events
+    public Board getBoard(long events) throws IOException {
+        Board board = new Board(initialState);
+        for (long event = 0; event < Math.min(events, eventCount); event++) {
+            int value = getInt(event, 1);
+            if (value > 0) {
+                board.place(getInt(event, 0), value);
+            } else {
+                board.clear(getInt(event, 0));
+            }
+        }
+        return board;
+    }
+
+    // The given field of the given event: the cell, the value, the depth or
+    // the nanoseconds since the event before it, in that order
+    private int getInt(long event, int field) throws IOException {
+        if (window == null || event < windowStart || event >= windowStart + WINDOW_EVENTS) {
+            windowStart = event - event % WINDOW_EVENTS;
+            long events = Math.min(WINDOW_EVENTS, eventCount - windowStart);
+            window = channel.map(FileChannel.MapMode.READ_ONLY,
+                    eventsStart + windowStart * BinaryTraceWriter.RECORD_SIZE,
+                    events * BinaryTraceWriter.RECORD_SIZE);
+        }
+        return window.getInt((int) (event - windowStart) * BinaryTraceWriter.RECORD_SIZE + field * Integer.BYTES);
+    }
+
+    // Goes over every event and describes the search in a few lines
+    public String getStatistics() throws IOException {
+        Board board = new Board(initialState);
+        long placements = 0;
+        long clears = 0;
+        long nanos = 0;
+        int maxDepth = 0;
+        long depthTotal = 0;
+        // The longest run of values from 1 on the board, now and at most
+        int run = 0;
+        while (run < board.size() && board.contains(run + 1)) {
+            run++;
+        }
+        int longestRun = run;
+        long[] clearsByValue = new long[board.size() + 1];
+        for (long event = 0; event < eventCount; event++) {
+            int cell = getInt(event, 0);
+            int value = getInt(event, 1);
+            int depth = getInt(event, 2);
+            nanos += getInt(event, 3);
+            maxDepth = Math.max(maxDepth, depth);
+            depthTotal += depth;
+            if (value > 0) {
+                placements++;
+                board.place(cell, value);
+                while (run < board.size() && board.contains(run + 1)) {
+                    run++;
+                }
+                longestRun = Math.max(longestRun, run);
+            } else {
+                clears++;
+                clearsByValue[-value]++;
+                board.clear(cell);
+                run = Math.min(run, -value - 1);
+            }
+        }
+        StringBuilder builder = new StringBuilder();
+        String newLine = System.lineSeparator();
+        builder.append(String.format("events=%d placements=%d clears=%d seconds=%.3f events_per_second=%.0f",
+                eventCount, placements, clears, nanos / 1e9, nanos == 0 ? 0 : eventCount * 1e9 / nanos))
+               .append(newLine)
+               .append(String.format("max_depth=%d mean_depth=%.1f longest_path=%d solved=%b",
+                maxDepth, eventCount == 0 ? 0 : (double) depthTotal / eventCount, longestRun, board.isSolved()))
+               .append(newLine);
+        Integer[] values = new Integer[board.size()];
+        for (int value = 1; value <= board.size(); value++) {
+            values[value - 1] = value;
+        }
+        Arrays.sort(values, (first, second) -> Long.compare(clearsByValue[second], clearsByValue[first]));
+        builder.append("most_cleared=");
+        for (int i = 0; i < Math.min(HOT_VALUES, values.length) && clearsByValue[values[i]] > 0; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(values[i]).append(':').append(clearsByValue[values[i]]);
+        }
+        return builder.append(newLine).toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @param args the command line arguments: the path of a trace, and
+     * optionally at=N to print the board after N events
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: java TraceReplay <trace> [at=<event>]");
+            System.exit(1);
+        }
+        try (TraceReplay replay = new TraceReplay(Paths.get(args[0]))) {
+            if (args.length > 1 && args[1].startsWith("at=")) {
+                long events = Long.parseLong(args[1].substring("at=".length()));
+                System.out.println("After " + Math.min(events, replay.getEventCount()) + " of " +
+                        replay.getEventCount() + " events:");
+                System.out.print(HexGridPuzzle.gridToString(replay.getBoard(events)));
+            } else {
+                System.out.print(replay.getStatistics());
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
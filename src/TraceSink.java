@@ -0,0 +1,12 @@
+/**
+ * Destination for the messages of a {@link SearchTrace}.
+ *
+ * @author NadavNV
+ */
+interface TraceSink extends AutoCloseable {
+    public void write(String message);
+
+    // Writes out anything still pending and releases the sink.
+    @Override
+    public void close();
+}
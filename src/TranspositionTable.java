@@ -0,0 +1,109 @@
+import java.util.Arrays;
+
+/**
+ * A bounded hash table of search states that are known to have no solution,
+ * keyed by {@link Board#getStateHash(int)}.</br>
+ * </br>
+ * Entries are kept in buckets of two: the first slot holds the entry with
+ * the largest subtree seen in the bucket, i.e. the one with the lowest next
+ * value, and the second slot always takes the newest entry. A failed search
+ * that was expensive is therefore kept over one that was cheap, while recent
+ * failures still get a place.</br>
+ * </br>
+ * Easy puzzles only ever add a handful of states, so the table starts small
+ * and doubles whenever it has taken as many states as it has slots, until it
+ * reaches its maximum size. From then on it never grows, and new states
+ * replace old ones as above.</br>
+ * </br>
+ * Only the hash of a state is kept, so two states with the same 64 bit hash
+ * are taken to be the same. Not thread safe.
+ *
+ * @author NadavNV
+ */
+class TranspositionTable {
+    // The default maximum number of slots, as a power of two
+    public static final int DEFAULT_MAX_SIZE_BITS = 18;
+    private static final int INITIAL_SIZE_BITS = 10;
+    private static final int SLOTS_PER_BUCKET = 2;
+
+    private final int maxSize;
+    private long[] hashes;
+    // The next value of the state in each slot, or 0 if the slot is empty.
+    // Every state has a next value of at least 2.
+    private int[] values;
+    private int bucketMask;
+    // How many states were added since the table last grew
+    private int added;
+
+    public TranspositionTable() {
+        this(DEFAULT_MAX_SIZE_BITS);
+    }
+
+    // Creates a table that grows up to 2^maxSizeBits slots
+    public TranspositionTable(int maxSizeBits) {
+        maxSize = 1 << maxSizeBits;
+        allocate(Math.min(INITIAL_SIZE_BITS, maxSizeBits));
+    }
+
+    private void allocate(int sizeBits) {
+        hashes = new long[1 << sizeBits];
+        values = new int[1 << sizeBits];
+        bucketMask = (hashes.length / SLOTS_PER_BUCKET) - 1;
+        added = 0;
+    }
+
+    // Whether the state with the given hash is known to have no solution
+    public boolean contains(long hash) {
+        int slot = firstSlot(hash);
+        return (hashes[slot] == hash && values[slot] != 0) ||
+               (hashes[slot + 1] == hash && values[slot + 1] != 0);
+    }
+
+    // Records that the state with the given hash and next value has no
+    // solution.
+    public void add(long hash, int nextValue) {
+        if (++added > hashes.length && hashes.length < maxSize) {
+            grow();
+        }
+        int slot = firstSlot(hash);
+        if (values[slot] == 0 || nextValue <= values[slot]) {
+            // The new entry takes the first slot, and the entry that was
+            // there moves down to the second unless it's the same state.
+            if (values[slot] != 0 && hashes[slot] != hash) {
+                hashes[slot + 1] = hashes[slot];
+                values[slot + 1] = values[slot];
+            }
+        } else {
+            slot++;
+        }
+        hashes[slot] = hash;
+        values[slot] = nextValue;
+    }
+
+    // Doubles the table, adding back every state it held. The second slot
+    // of each bucket goes in first, so that the first slot wins if both
+    // land in the same bucket.
+    private void grow() {
+        long[] oldHashes = hashes;
+        int[] oldValues = values;
+        allocate(Integer.numberOfTrailingZeros(hashes.length) + 1);
+        for (int first = 0; first < oldHashes.length; first += SLOTS_PER_BUCKET) {
+            for (int slot = first + 1; slot >= first; slot--) {
+                if (oldValues[slot] != 0) {
+                    add(oldHashes[slot], oldValues[slot]);
+                }
+            }
+        }
+        added = 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0);
+        added = 0;
+    }
+
+    private int firstSlot(long hash) {
+        // The low bits of the hash pick the bucket
+        return ((int) hash & bucketMask) * SLOTS_PER_BUCKET;
+    }
+}
@@ -0,0 +1,57 @@
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs batches whose output fails partway through, which has to end the
+ * batch with the error rather than leave the reader waiting for a writer
+ * that stopped.
+ *
+ * @author NadavNV
+ */
+class BatchSolverTest {
+    private static final String PUZZLE = "1:1,0,0,0,0,0,0";
+    // More than the queue between the reader and the writer holds
+    private static final int PUZZLES = 200;
+
+    // Fails every write after the first few
+    private static class FailingWriter extends Writer {
+        private int writes;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            if (++writes > 3) {
+                throw new IOException("Disk full");
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    void throwsWhenTheOutputFails() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < PUZZLES; i++) {
+            input.append(PUZZLE).append(System.lineSeparator());
+        }
+        BatchSolver solver = new BatchSolver(HexGridPuzzle.Algorithm.PATHFINDING,
+                HexGridPuzzle.MoveOrder.NATURAL, 1, 0, 0);
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            assertThrows(IOException.class, () -> solver.solve(
+                    new BufferedReader(new StringReader(input.toString())), new FailingWriter()));
+        });
+    }
+}
@@ -0,0 +1,43 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * Counts the solutions of puzzles whose counts are known, with every
+ * algorithm. Counting reuses what it learned about one part of the board
+ * for the next, so a wrong count is the first sign of a state that was
+ * remembered for the wrong reason.
+ *
+ * @author NadavNV
+ */
+class SolutionCountTest {
+    private static final long NODE_LIMIT = 10000000;
+
+    // Only 11 is placed, so most of the ways to fill the board are counted.
+    // Counts that reused the results of states where a value that propagation
+    // filled wasn't next to the one before it came out at 11051.
+    private static final String OPEN_PUZZLE = "2:0,0,0,11,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0";
+    private static final int OPEN_PUZZLE_SOLUTIONS = 12228;
+
+    @ParameterizedTest
+    @EnumSource(HexGridPuzzle.Algorithm.class)
+    void countsEverySolutionOfAnOpenPuzzle(HexGridPuzzle.Algorithm algorithm) {
+        HexGridPuzzle puzzle = new HexGridPuzzle(PuzzleFormat.parse(OPEN_PUZZLE));
+        assertEquals(OPEN_PUZZLE_SOLUTIONS,
+                puzzle.countSolutions(algorithm, Integer.MAX_VALUE, NODE_LIMIT, new AtomicBoolean()));
+        assertFalse(puzzle.hasUniqueSolution(algorithm, NODE_LIMIT));
+    }
+
+    @ParameterizedTest
+    @EnumSource(HexGridPuzzle.Algorithm.class)
+    void findsTheSolutionOfTheDefaultPuzzleUnique(HexGridPuzzle.Algorithm algorithm) {
+        HexGridPuzzle puzzle = new HexGridPuzzle(HexGridPuzzle.DEFAULT_MAX_RADIUS,
+                HexGridPuzzle.getDefaultInitialState());
+        assertTrue(puzzle.hasUniqueSolution(algorithm, NODE_LIMIT));
+    }
+}